@@ -0,0 +1,197 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size Bloom filter over 64-bit fingerprints that any number of
+ * threads can add to at once. Never forgets a fingerprint it has seen, but may
+ * claim to have seen one it has not, at roughly the false positive rate it was
+ * sized for until more than the expected number of fingerprints are added.
+ *
+ * Bits are set without locking, but adds of the same fingerprint take one of
+ * a few locks picked by the fingerprint, so that two threads adding a new one
+ * at once cannot each set some of its bits and both be told it is new.
+ */
+public class BloomFilter {
+
+	/** Number of locks adds are spread over, a power of two. */
+	private static final int STRIPES = 64;
+
+	/** Bits, 64 to a word. */
+	private final AtomicLongArray words;
+
+	/** Number of bits. */
+	private final long bits;
+
+	/** Number of bits set per fingerprint. */
+	private final int hashes;
+
+	/** Locks taken by adds, picked by the fingerprint. */
+	private final Object[] stripes;
+
+	/**
+	 * Initializes an empty filter sized for the expected number of
+	 * fingerprints and false positive rate.
+	 *
+	 * @param expected
+	 *            number of fingerprints expected to be added
+	 * @param falsePositiveRate
+	 *            chance of claiming to have seen a new fingerprint, between 0
+	 *            and 1
+	 */
+	public BloomFilter(long expected, double falsePositiveRate) {
+		if (expected < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("Expected count must be positive and false positive rate in (0, 1).");
+		}
+
+		double ln2 = Math.log(2);
+		long size = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (ln2 * ln2));
+		long count = Math.max(1, (size + 63) / 64);
+		if (count > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Bloom filter would be too large.");
+		}
+
+		this.words = new AtomicLongArray((int) count);
+		this.bits = count * 64;
+		this.hashes = Math.max(1, (int) Math.round((double) bits / expected * ln2));
+		this.stripes = stripes();
+	}
+
+	/**
+	 * Initializes a filter with the bits of one written by
+	 * {@link #write(DataOutputStream)}.
+	 *
+	 * @param words
+	 *            bits, 64 to a word
+	 * @param hashes
+	 *            number of bits set per fingerprint
+	 */
+	private BloomFilter(long[] words, int hashes) {
+		this.words = new AtomicLongArray(words);
+		this.bits = words.length * 64L;
+		this.hashes = hashes;
+		this.stripes = stripes();
+	}
+
+	/**
+	 * Creates the locks adds are spread over.
+	 *
+	 * @return the locks
+	 */
+	private static Object[] stripes() {
+		Object[] stripes = new Object[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Object();
+		}
+		return stripes;
+	}
+
+	/**
+	 * Reads a filter written by {@link #write(DataOutputStream)}.
+	 *
+	 * @param in
+	 *            stream to read from
+	 * @return the filter
+	 * @throws IOException
+	 *             if the stream cannot be read or does not hold a filter
+	 */
+	public static BloomFilter read(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		int hashes = in.readInt();
+		if (count < 1 || hashes < 1) {
+			throw new IOException("Malformed Bloom filter.");
+		}
+
+		long[] words = new long[count];
+		for (int i = 0; i < count; i++) {
+			words[i] = in.readLong();
+		}
+		return new BloomFilter(words, hashes);
+	}
+
+	/**
+	 * Writes the bits of the filter. Fingerprints added while writing may or
+	 * may not be included.
+	 *
+	 * @param out
+	 *            stream to write to
+	 * @throws IOException
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(words.length());
+		out.writeInt(hashes);
+		for (int i = 0; i < words.length(); i++) {
+			out.writeLong(words.get(i));
+		}
+	}
+
+	/**
+	 * Adds a fingerprint.
+	 *
+	 * @param fingerprint
+	 *            fingerprint to add
+	 * @return true if the fingerprint was definitely not added before, false
+	 *         if it probably was
+	 */
+	public boolean add(long fingerprint) {
+		// derives every bit from two halves of the fingerprint
+		int first = (int) fingerprint;
+		int second = (int) (fingerprint >>> 32);
+		boolean added = false;
+
+		// other fingerprints share words, so bits are still set one at a time
+		synchronized (stripes[(int) (fingerprint >>> 58) & (STRIPES - 1)]) {
+			for (int i = 1; i <= hashes; i++) {
+				long bit = ((first + (long) i * second) & Long.MAX_VALUE) % bits;
+				int index = (int) (bit >>> 6);
+				long mask = 1L << bit;
+
+				long word = words.get(index);
+				while ((word & mask) == 0) {
+					if (words.compareAndSet(index, word, word | mask)) {
+						added = true;
+						break;
+					}
+					word = words.get(index);
+				}
+			}
+		}
+
+		return added;
+	}
+
+	/**
+	 * Checks whether a fingerprint might have been added.
+	 *
+	 * @param fingerprint
+	 *            fingerprint to check
+	 * @return false if the fingerprint was definitely never added
+	 */
+	public boolean mightContain(long fingerprint) {
+		int first = (int) fingerprint;
+		int second = (int) (fingerprint >>> 32);
+
+		for (int i = 1; i <= hashes; i++) {
+			long bit = ((first + (long) i * second) & Long.MAX_VALUE) % bits;
+			if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the size of the filter.
+	 *
+	 * @return number of bytes used by the bits
+	 */
+	public long getBytes() {
+		return bits / 8;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d bits, %d hashes", bits, hashes);
+	}
+}
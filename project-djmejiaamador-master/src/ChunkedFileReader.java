@@ -0,0 +1,155 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a UTF-8 file as characters in fixed-size chunks, so that memory use
+ * depends on the buffer size instead of the size of the file. Bytes are read
+ * into a buffer of the given size, or come straight from the file mapped into
+ * memory one window at a time. Malformed input is replaced the same way as
+ * {@link String#String(byte[], java.nio.charset.Charset)} would.
+ */
+public class ChunkedFileReader extends Reader {
+
+	/** Smallest buffer size allowed, enough for any UTF-8 sequence. */
+	public static final int MIN_BUFFER_SIZE = 16;
+
+	/** Largest part of a file mapped into memory at once. */
+	private static final long WINDOW = 1 << 30;
+
+	private final FileChannel channel;
+	private final CharsetDecoder decoder;
+	private final boolean mapped;
+	private final long size;
+
+	/** Bytes read or mapped but not yet decoded. */
+	private ByteBuffer bytes;
+
+	/** Where in the file the mapped window starts. */
+	private long window;
+
+	/** Characters decoded but not yet read. */
+	private final CharBuffer chars;
+
+	/** Whether every byte of the file has been read or mapped. */
+	private boolean eof;
+
+	/** Whether the decoder has been flushed after the last byte. */
+	private boolean flushed;
+
+	/**
+	 * Opens a file for reading.
+	 *
+	 * @param path
+	 *            file to read
+	 * @param bufferSize
+	 *            size in bytes of the read buffer, and in characters of the
+	 *            decoded buffer, at least {@link #MIN_BUFFER_SIZE}
+	 * @param mapped
+	 *            whether to map the file into memory instead of reading it
+	 *            into the buffer
+	 * @throws IOException
+	 */
+	public ChunkedFileReader(Path path, int bufferSize, boolean mapped) throws IOException {
+		if (bufferSize < MIN_BUFFER_SIZE) {
+			throw new IllegalArgumentException("Buffer size must be at least " + MIN_BUFFER_SIZE + ".");
+		}
+
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.decoder = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.mapped = mapped;
+		this.size = channel.size();
+		this.window = 0;
+		this.eof = false;
+		this.flushed = false;
+
+		this.bytes = ByteBuffer.allocate(mapped ? 0 : bufferSize);
+		this.bytes.flip();
+		this.chars = CharBuffer.allocate(bufferSize);
+		this.chars.flip();
+	}
+
+	@Override
+	public int read(char[] buffer, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+
+		if (!chars.hasRemaining() && !decode()) {
+			return -1;
+		}
+
+		int count = Math.min(length, chars.remaining());
+		chars.get(buffer, offset, count);
+		return count;
+	}
+
+	/**
+	 * Decodes the next chunk of characters.
+	 *
+	 * @return false if there is nothing left to decode
+	 * @throws IOException
+	 */
+	private boolean decode() throws IOException {
+		chars.clear();
+
+		try {
+			while (chars.position() == 0 && !flushed) {
+				CoderResult result = decoder.decode(bytes, chars, eof);
+
+				if (result.isOverflow()) {
+					break;
+				}
+
+				if (eof) {
+					decoder.flush(chars);
+					flushed = true;
+				} else {
+					eof = !refill();
+				}
+			}
+		} finally {
+			chars.flip();
+		}
+
+		return chars.hasRemaining();
+	}
+
+	/**
+	 * Reads or maps more bytes, keeping any bytes that were not decoded yet.
+	 *
+	 * @return false if the end of the file was reached
+	 * @throws IOException
+	 */
+	private boolean refill() throws IOException {
+		if (mapped) {
+			if (window + bytes.limit() >= size) {
+				return false;
+			}
+
+			// start the next window at the first byte not yet decoded
+			window += bytes.position();
+			bytes = channel.map(FileChannel.MapMode.READ_ONLY, window, Math.min(WINDOW, size - window));
+			return true;
+		}
+
+		bytes.compact();
+		int read = channel.read(bytes);
+		bytes.flip();
+		return read >= 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,327 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A thread safe inverted index that does not use a global lock. Words are kept
+ * in a {@link ConcurrentSkipListMap} so they stay sorted for partial search,
+ * and the documents of each word in a {@link ConcurrentHashMap}. Positions are
+ * only locked per word and document while being appended, so writers to
+ * different words never block each other, and readers never block at all.
+ *
+ * Can be used anywhere a {@link ThreadSafeInvertedIndex} is used.
+ */
+public class ConcurrentInvertedIndex implements InvertedIndexInterface {
+
+	/** Maps each word to the paths it was found in and its positions there. */
+	private final ConcurrentSkipListMap<String, ConcurrentMap<String, Positions>> index;
+
+	public ConcurrentInvertedIndex() {
+		index = new ConcurrentSkipListMap<>();
+	}
+
+	/**
+	 * Returns the positions of a word in a path, creating them if necessary.
+	 *
+	 * @param word
+	 *            word to look up
+	 * @param path
+	 *            path the word was found in
+	 * @return positions of the word in the path
+	 */
+	private Positions positions(String word, String path) {
+		ConcurrentMap<String, Positions> paths = index.get(word);
+
+		if (paths == null) {
+			paths = index.computeIfAbsent(word, w -> new ConcurrentHashMap<>());
+		}
+
+		Positions positions = paths.get(path);
+
+		if (positions == null) {
+			positions = paths.computeIfAbsent(path, p -> new Positions());
+		}
+
+		return positions;
+	}
+
+	@Override
+	public void add(String word, String path, int position) {
+		positions(word, path).add(position);
+	}
+
+	@Override
+	public void addAll(String[] words, String file, int start) {
+		for (String word : words) {
+			positions(word, file).add(start++);
+		}
+	}
+
+	@Override
+	public void addAll(InvertedIndex other) {
+		for (String word : other.words()) {
+			for (Map.Entry<String, int[]> entry : other.locations(word).entrySet()) {
+				positions(word, entry.getKey()).addAll(entry.getValue());
+			}
+		}
+	}
+
+	@Override
+	public Set<String> words() {
+		return Collections.unmodifiableSet(index.keySet());
+	}
+
+	@Override
+	public TreeMap<String, int[]> locations(String word) {
+		TreeMap<String, int[]> locations = new TreeMap<>();
+		ConcurrentMap<String, Positions> paths = index.get(word);
+
+		if (paths != null) {
+			for (Map.Entry<String, Positions> entry : paths.entrySet()) {
+				int[] positions = entry.getValue().toArray();
+				if (positions.length > 0) {
+					locations.put(entry.getKey(), positions);
+				}
+			}
+		}
+
+		return locations;
+	}
+
+	@Override
+	public void outputFile(Path outputLocation) throws IOException {
+		JSONWriter.asNestedObject(this, outputLocation);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder whole = new StringBuilder();
+		for (String w : index.keySet()) {
+
+			whole.append("Key: " + w);
+			for (Map.Entry<String, int[]> entry : locations(w).entrySet()) {
+
+				whole.append("\tpath : " + entry.getKey());
+				whole.append("\t\t" + Arrays.toString(entry.getValue()));
+			}
+		}
+		return whole.toString();
+	}
+
+	@Override
+	public boolean contains(String key) {
+		return index.containsKey(key);
+	}
+
+	@Override
+	public int numWords() {
+		return index.size();
+	}
+
+	@Override
+	public int numPath(String word) {
+		ConcurrentMap<String, Positions> paths = index.get(word);
+		return paths == null ? 0 : paths.size();
+	}
+
+	@Override
+	public ArrayList<SearchResult> exactSearch(String[] words) {
+		ArrayList<SearchResult> results = exactMatches(words);
+		Collections.sort(results);
+		return results;
+	}
+
+	@Override
+	public ArrayList<SearchResult> partialSearch(String[] words) {
+		ArrayList<SearchResult> results = partialMatches(words);
+		Collections.sort(results);
+		return results;
+	}
+
+	@Override
+	public ArrayList<SearchResult> search(String[] words, boolean exact, int k) {
+		return SearchResult.topResults(exact ? exactMatches(words) : partialMatches(words), k);
+	}
+
+	/**
+	 * Finds every result for the exact words given, in no particular order.
+	 *
+	 * @param words
+	 *            words to look for
+	 * @return unsorted results
+	 */
+	private ArrayList<SearchResult> exactMatches(String[] words) {
+		ArrayList<SearchResult> results = new ArrayList<>();
+		Map<String, SearchResult> map = new HashMap<>();
+		for (String word : words) {
+
+			ConcurrentMap<String, Positions> paths = index.get(word);
+			if (paths != null) {
+				searchHelper(paths, map, results);
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Finds every result for words starting with any of the given words, in no
+	 * particular order.
+	 *
+	 * @param words
+	 *            prefixes to look for
+	 * @return unsorted results
+	 */
+	private ArrayList<SearchResult> partialMatches(String[] words) {
+		ArrayList<SearchResult> results = new ArrayList<>();
+		Map<String, SearchResult> map = new HashMap<>();
+		for (String word : words) {
+
+			for (Map.Entry<String, ConcurrentMap<String, Positions>> entry : index.tailMap(word).entrySet()) {
+
+				if (entry.getKey().startsWith(word)) {
+					searchHelper(entry.getValue(), map, results);
+				} else {
+					break;
+				}
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Adds founds values to a map of Search results if values are new, else
+	 * update current frequency if result already exists.
+	 *
+	 * @param paths
+	 *            paths of the word to look for, mapped to its positions
+	 * @param map
+	 *            where found values are stored, by path
+	 * @param results
+	 *            where found results are stored
+	 */
+	private static void searchHelper(ConcurrentMap<String, Positions> paths, Map<String, SearchResult> map,
+			ArrayList<SearchResult> results) {
+
+		for (Map.Entry<String, Positions> entry : paths.entrySet()) {
+
+			int[] snapshot = entry.getValue().snapshot();
+			if (snapshot == null) {
+				continue;
+			}
+
+			SearchResult found = map.get(entry.getKey());
+			if (found != null) {
+
+				found.addFrequency(snapshot[0]);
+				found.updatePosition(snapshot[1]);
+			} else {
+
+				SearchResult sr = new SearchResult(snapshot[0], snapshot[1], entry.getKey());
+				map.put(entry.getKey(), sr);
+				results.add(sr);
+			}
+		}
+	}
+
+	/**
+	 * The sorted, unique positions of one word in one path. Writers lock only
+	 * this object. Readers do not lock at all: every change publishes either a
+	 * longer count over the same array, or a brand new array, through volatile
+	 * fields, so readers always see a sorted prefix of the positions.
+	 */
+	private static class Positions {
+
+		/** Sorted positions, only the first {@link #count} are in use. */
+		private volatile int[] data;
+
+		/** Number of positions in use. */
+		private volatile int count;
+
+		public Positions() {
+			data = new int[4];
+			count = 0;
+		}
+
+		/**
+		 * Adds a position, ignoring duplicates.
+		 *
+		 * @param position
+		 *            position to add
+		 */
+		public synchronized void add(int position) {
+			int[] list = data;
+			int size = count;
+
+			if (size == 0 || list[size - 1] < position) {
+				if (size == list.length) {
+					list = Arrays.copyOf(list, size * 2);
+					data = list;
+				}
+				list[size] = position;
+				count = size + 1;
+				return;
+			}
+
+			int i = Arrays.binarySearch(list, 0, size, position);
+			if (i >= 0) {
+				return;
+			}
+
+			// copy on write so readers never see a shifted array
+			i = -(i + 1);
+			int[] copy = new int[Math.max(list.length, size + 1)];
+			System.arraycopy(list, 0, copy, 0, i);
+			copy[i] = position;
+			System.arraycopy(list, i, copy, i + 1, size - i);
+			data = copy;
+			count = size + 1;
+		}
+
+		/**
+		 * Adds several sorted positions, ignoring duplicates.
+		 *
+		 * @param positions
+		 *            sorted positions to add
+		 */
+		public synchronized void addAll(int[] positions) {
+			for (int position : positions) {
+				add(position);
+			}
+		}
+
+		/**
+		 * Returns the number of positions and the first position, read from a
+		 * single consistent state.
+		 *
+		 * @return two element array of frequency and first position, or null if
+		 *         there are no positions yet
+		 */
+		public int[] snapshot() {
+			int size = count;
+			int[] list = data;
+			return size == 0 ? null : new int[] { size, list[0] };
+		}
+
+		/**
+		 * Returns a copy of the positions.
+		 *
+		 * @return sorted positions
+		 */
+		public int[] toArray() {
+			int size = count;
+			int[] list = data;
+			return Arrays.copyOf(list, size);
+		}
+	}
+}
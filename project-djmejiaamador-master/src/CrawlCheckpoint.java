@@ -0,0 +1,245 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The state of a crawl saved to disk, so that a crawl that stops part way can
+ * pick up where it left off instead of fetching every page again. A
+ * checkpoint is made of three files in one directory: a snapshot of the index,
+ * the set of urls seen, and the urls still waiting to be visited with their
+ * depth.
+ *
+ * Every checkpoint gets the next generation number, and the list of waiting
+ * urls is written last, so a checkpoint only counts once that file exists.
+ * Older generations are deleted once a newer one is complete, so a crash while
+ * writing always leaves the previous checkpoint behind.
+ */
+public class CrawlCheckpoint {
+
+	/** Directory used when none is given. */
+	public static final String DEFAULT_DIRECTORY = "checkpoint";
+
+	/** Default seconds between checkpoints. */
+	public static final int DEFAULT_INTERVAL = 60;
+
+	/** Matches the names of the files a checkpoint is made of. */
+	private static final Pattern NAME = Pattern.compile("checkpoint-(\\d+)\\.(index|seen|frontier|frontier\\.tmp)");
+
+	private final Path directory;
+	private final long generation;
+
+	/** Number of urls crawled or scheduled to be when saved. */
+	private final int scheduled;
+
+	/** Maps each url waiting to be visited to its depth, in saved order. */
+	private final LinkedHashMap<String, Integer> waiting;
+
+	private CrawlCheckpoint(Path directory, long generation, int scheduled, LinkedHashMap<String, Integer> waiting) {
+		this.directory = directory;
+		this.generation = generation;
+		this.scheduled = scheduled;
+		this.waiting = waiting;
+	}
+
+	/**
+	 * Returns one of the files of a checkpoint.
+	 *
+	 * @param directory
+	 *            directory of the checkpoint
+	 * @param generation
+	 *            generation of the checkpoint
+	 * @param kind
+	 *            "index", "seen", "frontier" or "frontier.tmp"
+	 * @return path of the file
+	 */
+	private static Path file(Path directory, long generation, String kind) {
+		return directory.resolve("checkpoint-" + generation + "." + kind);
+	}
+
+	/**
+	 * Lists the generations with any file in a directory.
+	 *
+	 * @param directory
+	 *            directory to look in
+	 * @param complete
+	 *            whether to only list generations whose list of waiting urls
+	 *            was written
+	 * @return generations found, in no particular order
+	 * @throws IOException
+	 */
+	private static ArrayList<Long> generations(Path directory, boolean complete) throws IOException {
+		ArrayList<Long> found = new ArrayList<>();
+		if (!Files.isDirectory(directory)) {
+			return found;
+		}
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				Matcher matcher = NAME.matcher(file.getFileName().toString());
+				if (matcher.matches() && (!complete || matcher.group(2).equals("frontier"))) {
+					found.add(Long.parseLong(matcher.group(1)));
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Reads the newest complete checkpoint in a directory.
+	 *
+	 * @param directory
+	 *            directory the checkpoints are written to
+	 * @return the checkpoint, or null if there is none
+	 * @throws IOException
+	 *             if the checkpoint cannot be read
+	 */
+	public static CrawlCheckpoint latest(Path directory) throws IOException {
+		long newest = -1;
+		for (long generation : generations(directory, true)) {
+			newest = Math.max(newest, generation);
+		}
+
+		if (newest < 0) {
+			return null;
+		}
+
+		LinkedHashMap<String, Integer> waiting = new LinkedHashMap<>();
+		int scheduled;
+
+		try (BufferedReader reader = Files.newBufferedReader(file(directory, newest, "frontier"),
+				StandardCharsets.UTF_8)) {
+			try {
+				scheduled = Integer.parseInt(reader.readLine());
+
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] fields = line.split("\t", 2);
+					if (fields.length != 2) {
+						throw new IOException("Malformed checkpoint line: " + line);
+					}
+					waiting.put(fields[1], Integer.parseInt(fields[0]));
+				}
+			} catch (NumberFormatException e) {
+				throw new IOException("Malformed checkpoint: " + file(directory, newest, "frontier"), e);
+			}
+		}
+
+		return new CrawlCheckpoint(directory, newest, scheduled, waiting);
+	}
+
+	/**
+	 * Saves the state of a crawl as the next generation, and deletes older
+	 * ones once it is complete. The crawl must not change while it is saved.
+	 *
+	 * @param directory
+	 *            directory to write to, created if missing
+	 * @param index
+	 *            index of the pages visited so far
+	 * @param seen
+	 *            urls seen so far
+	 * @param waiting
+	 *            maps each url not yet visited to its depth
+	 * @param scheduled
+	 *            number of urls crawled or scheduled to be
+	 * @return generation written
+	 * @throws IOException
+	 */
+	public static long write(Path directory, InvertedIndexInterface index, SeenURLSet seen,
+			Map<String, Integer> waiting, int scheduled) throws IOException {
+		Files.createDirectories(directory);
+
+		ArrayList<Long> previous = generations(directory, false);
+		long generation = 0;
+		for (long old : previous) {
+			generation = Math.max(generation, old + 1);
+		}
+
+		MappedInvertedIndex.write(index, file(directory, generation, "index"));
+		seen.write(file(directory, generation, "seen"));
+
+		// written under another name first, since its presence marks the checkpoint complete
+		Path frontier = file(directory, generation, "frontier");
+		Path partial = file(directory, generation, "frontier.tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(partial, StandardCharsets.UTF_8)) {
+			writer.write(Integer.toString(scheduled));
+			writer.newLine();
+			for (Map.Entry<String, Integer> entry : waiting.entrySet()) {
+				writer.write(entry.getValue() + "\t" + entry.getKey());
+				writer.newLine();
+			}
+		}
+		Files.move(partial, frontier);
+
+		for (long old : previous) {
+			for (String kind : new String[] { "frontier", "frontier.tmp", "seen", "index" }) {
+				Files.deleteIfExists(file(directory, old, kind));
+			}
+		}
+
+		return generation;
+	}
+
+	/**
+	 * Returns the generation of this checkpoint.
+	 *
+	 * @return generation number
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Returns the number of urls crawled or scheduled to be when saved, which
+	 * counts towards the limit of the resumed crawl.
+	 *
+	 * @return number of urls
+	 */
+	public int getScheduled() {
+		return scheduled;
+	}
+
+	/**
+	 * Returns the urls that were still waiting to be visited, including any
+	 * that were being fetched or parsed when saved.
+	 *
+	 * @return maps each url to its depth
+	 */
+	public Map<String, Integer> getWaiting() {
+		return waiting;
+	}
+
+	/**
+	 * Reads the urls seen when saved.
+	 *
+	 * @return the seen urls
+	 * @throws IOException
+	 */
+	public SeenURLSet readSeen() throws IOException {
+		return SeenURLSet.read(file(directory, generation, "seen"));
+	}
+
+	/**
+	 * Reads the index of the pages visited when saved.
+	 *
+	 * @return copy of the saved index
+	 * @throws IOException
+	 */
+	public InvertedIndex readIndex() throws IOException {
+		return new MappedInvertedIndex(file(directory, generation, "index")).copy();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("checkpoint %d in %s, %d urls scheduled, %d waiting", generation, directory, scheduled,
+				waiting.size());
+	}
+}
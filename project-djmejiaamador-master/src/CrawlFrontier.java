@@ -0,0 +1,443 @@
+import java.net.URL;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/**
+ * The urls a crawl still has to visit, kept in one queue per host so that no
+ * single host is fetched from too often or by too many threads at once, and
+ * so that a host with many links cannot crowd out the others. Workers call
+ * {@link #take()} for the best url whose host may be fetched from right now,
+ * and report back with {@link #fetched(Entry)} once the page has been
+ * downloaded and {@link #done(Entry)} once its links have been added.
+ *
+ * Urls are ordered by depth, visiting pages closer to the seed first, or by
+ * the number of links to them found so far, visiting popular pages first.
+ * Ties go to the url found first.
+ *
+ * Only the hosts that may be fetched from right now are compared, through a
+ * heap holding the best url of each, and hosts waiting out their delay sit in
+ * a heap of their own, so taking a url costs the same with a thousand hosts
+ * as with one. A host is forgotten once nothing is waiting on it, nothing is
+ * being fetched from it, and its delay has passed.
+ */
+public class CrawlFrontier {
+
+	/** How urls are ordered. */
+	public static enum Priority {
+		/** Fewest links away from the seed first. */
+		DEPTH,
+		/** Most links to it found so far first. */
+		INBOUND
+	};
+
+	/** Default most threads fetching from a single host at once. */
+	public static final int DEFAULT_HOST_THREADS = 2;
+
+	/** Default least milliseconds between fetches from a single host. */
+	public static final long DEFAULT_DELAY = 100;
+
+	private final int hostThreads;
+	private final long delay;
+	private final Priority priority;
+	private final Comparator<Entry> order;
+
+	/** Maps "host:port" to its queue, for hosts not yet forgotten. */
+	private final HashMap<String, Host> hosts;
+
+	/**
+	 * The best url of every host that may be fetched from right now. Holds
+	 * urls that are no longer the best of their host too, which are skipped.
+	 */
+	private final PriorityQueue<Entry> ready;
+
+	/** Hosts waiting out their delay, soonest allowed first. */
+	private final PriorityQueue<Host> delayed;
+
+	/** Number of urls waiting in any queue. */
+	private int queued;
+
+	/** Number of hosts with urls waiting. */
+	private int waiting;
+
+	/** Number of urls taken but not yet done with. */
+	private int active;
+
+	/** Set once no more urls should be handed out. */
+	private boolean closed;
+
+	/** Orders entries added at the same priority by when they were added. */
+	private long sequence;
+
+	/**
+	 * Initializes an empty frontier.
+	 *
+	 * @param hostThreads
+	 *            most threads fetching from a single host at once
+	 * @param delay
+	 *            least milliseconds between the start of two fetches from the
+	 *            same host
+	 * @param priority
+	 *            how urls from the same host are ordered
+	 */
+	public CrawlFrontier(int hostThreads, long delay, Priority priority) {
+		if (hostThreads < 1 || delay < 0) {
+			throw new IllegalArgumentException("At least one thread per host and no negative delay are required.");
+		}
+
+		this.hostThreads = hostThreads;
+		this.delay = delay;
+		this.priority = priority;
+		this.hosts = new HashMap<>();
+		this.queued = 0;
+		this.waiting = 0;
+		this.active = 0;
+		this.closed = false;
+		this.sequence = 0;
+
+		Comparator<Entry> first = priority == Priority.DEPTH ? Comparator.comparingInt(e -> e.depth)
+				: Comparator.comparingInt(e -> -e.inbound);
+		this.order = first.thenComparingLong(e -> e.sequence);
+		this.ready = new PriorityQueue<>(order);
+		this.delayed = new PriorityQueue<>(Comparator.comparingLong(h -> h.allowed));
+	}
+
+	/**
+	 * Returns how urls from the same host are ordered.
+	 *
+	 * @return the priority
+	 */
+	public Priority getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Returns the key of the host of a url.
+	 *
+	 * @param url
+	 *            url to look at
+	 * @return host and port
+	 */
+	private static String hostKey(URL url) {
+		int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+		return url.getHost().toLowerCase() + ":" + port;
+	}
+
+	/**
+	 * Adds a url to visit. The caller is expected to only add each url once.
+	 *
+	 * @param url
+	 *            url to visit
+	 * @param depth
+	 *            number of links between the seed and the url
+	 */
+	public synchronized void add(URL url, int depth) {
+		String key = hostKey(url);
+		Host host = hosts.get(key);
+		if (host == null) {
+			host = new Host(key);
+			hosts.put(key, host);
+		}
+
+		Entry entry = new Entry(url, depth, 1, host, sequence++);
+		if (priority == Priority.INBOUND) {
+			host.entries.put(SeenURLSet.normalize(url), entry);
+		}
+		if (host.size++ == 0) {
+			waiting++;
+		}
+		queued++;
+		offer(host, entry);
+		notifyAll();
+	}
+
+	/**
+	 * Counts a link to a url, which moves it up if it is still waiting and
+	 * urls are ordered by inbound links. Does nothing otherwise.
+	 *
+	 * @param url
+	 *            url that was linked to
+	 */
+	public synchronized void reference(URL url) {
+		if (priority != Priority.INBOUND) {
+			return;
+		}
+
+		Host host = hosts.get(hostKey(url));
+		if (host == null) {
+			return;
+		}
+
+		String key = SeenURLSet.normalize(url);
+		Entry entry = host.entries.get(key);
+		if (entry != null) {
+			// the queue only notices a priority on the way in, so the old
+			// entry is left behind and skipped instead of searched for
+			Entry moved = new Entry(entry.url, entry.depth, entry.inbound + 1, host, entry.sequence);
+			entry.stale = true;
+			host.entries.put(key, moved);
+			offer(host, moved);
+
+			// keeps what is skipped from outgrowing what is waiting
+			if (host.queue.size() > 2 * host.size + 64) {
+				host.queue.removeIf(e -> e.stale);
+			}
+		}
+	}
+
+	/**
+	 * Adds an entry to the queue of its host, and to the urls that may be
+	 * fetched from right now if it became the best one of a host that may.
+	 *
+	 * @param host
+	 *            host of the entry
+	 * @param entry
+	 *            entry to add
+	 */
+	private void offer(Host host, Entry entry) {
+		host.queue.add(entry);
+		if (host.state == State.READY) {
+			if (best(host) == entry) {
+				ready.add(entry);
+			}
+		} else if (host.state == State.IDLE) {
+			place(host, System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * Returns the best url waiting on a host, dropping any left behind by
+	 * {@link #reference(URL)} on the way.
+	 *
+	 * @param host
+	 *            host to look at
+	 * @return the best url, or null if none are waiting
+	 */
+	private Entry best(Host host) {
+		while (!host.queue.isEmpty() && host.queue.peek().stale) {
+			host.queue.poll();
+		}
+		return host.queue.peek();
+	}
+
+	/**
+	 * Decides where a host that is neither ready nor delayed goes next: to
+	 * the ready urls if it may be fetched from, to the delayed hosts if it
+	 * must wait, or nowhere until a fetch from it finishes or a url is added.
+	 * Forgets the host if nothing is left to remember it for.
+	 *
+	 * @param host
+	 *            host to place
+	 * @param now
+	 *            current time in milliseconds
+	 */
+	private void place(Host host, long now) {
+		if (host.allowed > now) {
+			host.state = State.DELAYED;
+			delayed.add(host);
+		} else if (host.size == 0) {
+			host.state = State.IDLE;
+			if (host.fetching == 0) {
+				hosts.remove(host.key);
+			}
+		} else if (host.fetching >= hostThreads) {
+			host.state = State.IDLE;
+		} else {
+			host.state = State.READY;
+			ready.add(best(host));
+		}
+	}
+
+	/**
+	 * Waits for the best url whose host may be fetched from right now.
+	 *
+	 * @return the url and its depth, or null once nothing is waiting and
+	 *         nothing is being worked on, or the frontier was closed
+	 * @throws InterruptedException
+	 */
+	public synchronized Entry take() throws InterruptedException {
+		while (true) {
+			if (closed || (queued == 0 && active == 0)) {
+				notifyAll();
+				return null;
+			}
+
+			long now = System.currentTimeMillis();
+			while (!delayed.isEmpty() && delayed.peek().allowed <= now) {
+				place(delayed.poll(), now);
+			}
+
+			while (!ready.isEmpty()) {
+				Entry entry = ready.poll();
+				Host host = entry.host;
+
+				// skips urls that are no longer the best of a ready host
+				if (host.state != State.READY || best(host) != entry) {
+					continue;
+				}
+
+				host.queue.poll();
+				if (priority == Priority.INBOUND) {
+					host.entries.remove(SeenURLSet.normalize(entry.url));
+				}
+				if (--host.size == 0) {
+					waiting--;
+				}
+				host.fetching++;
+				host.allowed = now + delay;
+				queued--;
+				active++;
+
+				host.state = State.IDLE;
+				place(host, now);
+				return entry;
+			}
+
+			if (delayed.isEmpty()) {
+				wait();
+			} else {
+				wait(Math.max(1, delayed.peek().allowed - now));
+			}
+		}
+	}
+
+	/**
+	 * Reports that the page of a url has been fetched, or failed to be,
+	 * freeing up a thread for its host.
+	 *
+	 * @param entry
+	 *            entry returned by {@link #take()}
+	 */
+	public synchronized void fetched(Entry entry) {
+		Host host = entry.host;
+		host.fetching--;
+		if (host.state == State.IDLE) {
+			place(host, System.currentTimeMillis());
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Reports that a url has been dealt with and any links found on it have
+	 * been added.
+	 *
+	 * @param entry
+	 *            entry returned by {@link #take()}
+	 */
+	public synchronized void done(Entry entry) {
+		active--;
+		notifyAll();
+	}
+
+	/**
+	 * Stops handing out urls. Threads waiting in {@link #take()} return null.
+	 */
+	public synchronized void close() {
+		closed = true;
+		notifyAll();
+	}
+
+	/**
+	 * Returns the number of urls waiting.
+	 *
+	 * @return number of urls not yet taken
+	 */
+	public synchronized int size() {
+		return queued;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d urls waiting on %d hosts, %d in progress", queued, waiting, active);
+	}
+
+	/**
+	 * A url waiting to be visited.
+	 */
+	public static class Entry {
+
+		private final URL url;
+		private final int depth;
+		private final int inbound;
+		private final Host host;
+		private final long sequence;
+
+		/** Set once a link to the url replaced this entry with another. */
+		private boolean stale;
+
+		private Entry(URL url, int depth, int inbound, Host host, long sequence) {
+			this.url = url;
+			this.depth = depth;
+			this.inbound = inbound;
+			this.host = host;
+			this.sequence = sequence;
+			this.stale = false;
+		}
+
+		/**
+		 * Returns the url to visit.
+		 *
+		 * @return the url
+		 */
+		public URL getURL() {
+			return url;
+		}
+
+		/**
+		 * Returns the number of links between the seed and the url.
+		 *
+		 * @return the depth
+		 */
+		public int getDepth() {
+			return depth;
+		}
+	}
+
+	/** Where a host is kept while it has nothing in progress to decide it. */
+	private static enum State {
+		/** Its best url is among those that may be fetched right now. */
+		READY,
+		/** Waiting out its delay among the delayed hosts. */
+		DELAYED,
+		/** In neither, since nothing is waiting or too many are fetching. */
+		IDLE
+	};
+
+	/**
+	 * The urls waiting on one host, and when it may be fetched from next.
+	 */
+	private class Host {
+
+		private final String key;
+
+		/** Waiting entries, along with any left behind by a new link. */
+		private final PriorityQueue<Entry> queue;
+
+		/**
+		 * Waiting entries by normalized url, to count links to them. Only
+		 * kept when urls are ordered by inbound links.
+		 */
+		private final HashMap<String, Entry> entries;
+
+		/** Number of urls waiting, not counting entries left behind. */
+		private int size;
+
+		/** Number of fetches from this host in progress. */
+		private int fetching;
+
+		/** Earliest time the next fetch may start. */
+		private long allowed;
+
+		private State state;
+
+		public Host(String key) {
+			this.key = key;
+			this.queue = new PriorityQueue<>(order);
+			this.entries = new HashMap<>();
+			this.size = 0;
+			this.fetching = 0;
+			this.allowed = 0;
+			this.state = State.IDLE;
+		}
+	}
+}
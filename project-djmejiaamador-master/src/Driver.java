@@ -3,6 +3,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -22,37 +23,142 @@ public class Driver {
 	public static void main(String[] args) {
 
 		WorkQueue queue = null;
+		WorkQueue fetchers = null;
 		ArgumentMap map = new ArgumentMap(args);
-		InvertedIndex index;
+		InvertedIndexInterface index;
 		IndexBuilderInterface builder;
 		QueryParserInterface parser;
 		WebCrawler crawler = null;
+		InvertedIndexInterface loaded = null;
+		int bufferSize = Math.max(map.getInteger("-buffer", IndexBuilder.DEFAULT_BUFFER_SIZE),
+				ChunkedFileReader.MIN_BUFFER_SIZE);
+		boolean mapped = map.hasFlag("-mmap");
+		IncrementalIndexBuilder incremental = null;
 
-		if (map.hasFlag("-threads") || map.hasFlag("-url")) {
+		if (map.hasFlag("-load")) {
 			try {
-				queue = new WorkQueue(map.threadNum("-threads", 5));
+				loaded = new MappedInvertedIndex(map.getPath("-load", "index.bin"));
+			} catch (IOException e) {
+				System.out.println("Unable to load index from: " + map.getPath("-load", "index.bin"));
+			}
+		}
+
+		if (map.hasFlag("-threads") || map.hasFlag("-url") || map.hasFlag("-watch") || map.hasFlag("-offline")) {
+			try {
+				int capacity = Integer.MAX_VALUE;
+				WorkQueue.Rejection rejection = WorkQueue.Rejection.BLOCK;
+				if (map.hasFlag("-queue-capacity")) {
+					// bounds the work waiting, such as one search per line of a huge query file
+					capacity = Math.max(1, map.getInteger("-queue-capacity", 1000));
+					try {
+						rejection = WorkQueue.Rejection
+								.valueOf(map.getString("-rejection", "block").toUpperCase().replace('-', '_'));
+					} catch (IllegalArgumentException e) {
+						System.out.println("Unknown rejection policy, waiting for room instead: "
+								+ map.getString("-rejection"));
+					}
+				}
+
+				// many short tasks run faster with a deque per worker than one shared list
+				queue = map.hasFlag("-work-stealing")
+						? new WorkStealingQueue(map.threadNum("-threads", 5), capacity, rejection)
+						: new WorkQueue(map.threadNum("-threads", 5), capacity, rejection);
 			} catch (NumberFormatException e) {
 				log.debug("invalid number number of threads");
 			}
-			ThreadSafeInvertedIndex threadSafe = new ThreadSafeInvertedIndex();
+			InvertedIndexInterface threadSafe;
+			if (loaded != null) {
+				threadSafe = loaded;
+			} else if (map.hasFlag("-concurrent")) {
+				threadSafe = new ConcurrentInvertedIndex();
+			} else if (map.hasFlag("-segmented")) {
+				threadSafe = new SegmentedInvertedIndex(queue);
+			} else {
+				threadSafe = new ThreadSafeInvertedIndex();
+			}
 			index = threadSafe;
-			parser = new ThreadSafeQueryParser(threadSafe, queue);
-			builder = new MultiThreadedIndexBuilder(queue, threadSafe);
+			parser = new ThreadSafeQueryParser(threadSafe, queue, map.getInteger("-limit-results", Integer.MAX_VALUE));
+			builder = new MultiThreadedIndexBuilder(queue, threadSafe, bufferSize, mapped);
 
 		} else {
-			index = new InvertedIndex();
-			parser = new QueryParser(index);
-			builder = new IndexBuilder(index);
+			index = loaded != null ? loaded : new InvertedIndex();
+			parser = new QueryParser(index, map.getInteger("-limit-results", Integer.MAX_VALUE));
+			builder = new IndexBuilder(index, bufferSize, mapped);
 		}
 
 		// log.debug("numebr of threads:{}", queue.size());
 
-		if (map.hasFlag("-url")) {
-			crawler = new WebCrawler(queue, (ThreadSafeInvertedIndex) index);
+		if (map.hasFlag("-incremental")) {
+			incremental = new IncrementalIndexBuilder(index, builder, map.getPath("-save", "index.bin"));
+			builder = incremental;
+		}
+
+		if (map.hasFlag("-url") || map.hasFlag("-offline")) {
+			if (map.hasFlag("-fetch-threads")) {
+				// fetching mostly waits, so it gets its own and much larger queue
+				fetchers = new WorkQueue(Math.max(1, map.getInteger("-fetch-threads", 64)));
+			}
+			Path checkpoints = map.getPath("-checkpoint", CrawlCheckpoint.DEFAULT_DIRECTORY);
+			CrawlCheckpoint resumed = null;
+			SeenURLSet seen = null;
+			if (map.hasFlag("-resume")) {
+				try {
+					resumed = CrawlCheckpoint.latest(checkpoints);
+					if (resumed != null) {
+						seen = resumed.readSeen();
+					} else {
+						System.out.println("No checkpoint to resume from in: " + checkpoints);
+					}
+				} catch (IOException e) {
+					System.out.println("Unable to read checkpoint from: " + checkpoints);
+					resumed = null;
+				}
+			}
+
+			if (seen == null) {
+				// a Bloom filter keeps memory flat, but may skip the odd new link
+				seen = map.hasFlag("-bloom")
+						? new SeenURLSet(Math.max(1, map.getInteger("-bloom", SeenURLSet.DEFAULT_EXPECTED)),
+								SeenURLSet.DEFAULT_FALSE_POSITIVE_RATE)
+						: new SeenURLSet();
+			}
+			CrawlFrontier frontier = null;
+			if (map.hasFlag("-frontier")) {
+				// polite crawling spreads fetches over hosts instead of in link order
+				CrawlFrontier.Priority priority = map.getString("-priority", "depth").equalsIgnoreCase("inbound")
+						? CrawlFrontier.Priority.INBOUND : CrawlFrontier.Priority.DEPTH;
+				frontier = new CrawlFrontier(Math.max(1, map.getInteger("-host-threads", CrawlFrontier.DEFAULT_HOST_THREADS)),
+						Math.max(0, map.getInteger("-politeness", (int) CrawlFrontier.DEFAULT_DELAY)), priority);
+			}
+			crawler = new WebCrawler(queue, index, fetchers, seen, frontier);
+			if (map.hasFlag("-checkpoint") || map.hasFlag("-resume")) {
+				crawler.setCheckpoints(checkpoints,
+						1000L * Math.max(1, map.getInteger("-checkpoint-interval", CrawlCheckpoint.DEFAULT_INTERVAL)));
+			}
+
+			if (map.hasFlag("-max-page-size")) {
+				crawler.setMaxBody(Math.max(1, map.getInteger("-max-page-size", (int) HTTPFetcher.DEFAULT_MAX_BODY)));
+			}
+
+			if (map.hasFlag("-store") || map.hasFlag("-offline")) {
+				crawler.setStore(new PageStore(map.getPath("-store", PageStore.DEFAULT_DIRECTORY)));
+			}
+
 			try {
-				crawler.crawl(new URL(map.get("-url")), map.getInteger("-limit", 50));
+				if (map.hasFlag("-offline")) {
+					// rebuilds the index from stored pages alone, without a seed
+					crawler.reindex();
+				} else if (resumed != null) {
+					crawler.resume(resumed, map.getInteger("-limit", 50));
+				} else {
+					crawler.crawl(new URL(map.get("-url")), map.getInteger("-limit", 50));
+				}
 			} catch (MalformedURLException e) {
 				System.out.println(crawler);
+			} catch (IOException e) {
+				System.out.println(map.hasFlag("-offline")
+						? "Unable to read stored pages from: " + map.getPath("-store", PageStore.DEFAULT_DIRECTORY)
+						: "Unable to resume from: " + checkpoints);
 			} catch (Exception e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
@@ -60,13 +166,61 @@ public class Driver {
 
 		}
 
+		// watches before building, so changes made while building are not missed
+		IndexWatcher watcher = null;
+		if (map.hasFlag("-watch") && map.hasFlag("-path")) {
+			if (index instanceof ThreadSafeInvertedIndex) {
+				try {
+					watcher = new IndexWatcher(map.getPath("-path"), (ThreadSafeInvertedIndex) index, queue,
+							map.getInteger("-debounce", IndexWatcher.DEFAULT_DEBOUNCE), bufferSize, mapped);
+				} catch (IOException e) {
+					System.out.println("Unable to watch the path: " + map.getPath("-path"));
+				}
+			} else {
+				System.out.println("Watching requires the default thread-safe index.");
+			}
+		}
+
 		if (map.hasFlag("-path")) {
 			try {
-				ArrayList<Path> paths = HTMLTraverser.traverse(map.getPath("-path"));
-				builder.buildIndex(paths);
-			} catch (IOException | NumberFormatException | NullPointerException e) {
+				// the pipeline walks the directory itself, so it cannot skip files
+				if (map.hasFlag("-pipeline") && incremental == null) {
+					// a plain index can only be written to by one thread
+					int mergers = queue == null ? 1 : map.threadNum("-merge-threads", 1);
+					IndexPipeline pipeline = new IndexPipeline(index, map.threadNum("-walk-threads", 1),
+							map.threadNum("-read-threads", 1),
+							map.threadNum("-tokenize-threads", queue == null ? 1 : queue.size()), mergers,
+							map.threadNum("-queue-size", IndexPipeline.DEFAULT_QUEUE_SIZE), bufferSize, mapped);
+					pipeline.build(map.getPath("-path"));
+				} else {
+					ArrayList<Path> paths = map.hasFlag("-walk-threads")
+							? HTMLTraverser.traverse(map.getPath("-path"), map.threadNum("-walk-threads", 1))
+							: HTMLTraverser.traverse(map.getPath("-path"));
+					builder.buildIndex(paths);
+				}
+			} catch (IOException | NumberFormatException | NullPointerException | UnsupportedOperationException e) {
 				System.out.println("Unable to build index from the path: " + map.getPath("-path"));
 			}
+
+			// nothing is added to the index after this point unless crawling
+			if (!map.hasFlag("-url") && !map.hasFlag("-watch") && index instanceof InvertedIndex) {
+				InvertedIndex frozen = (InvertedIndex) index;
+				long before = frozen.estimateMemory();
+				frozen.freeze();
+				log.debug("Froze index, postings went from {} to {} bytes", before, frozen.estimateMemory());
+			}
+		}
+
+		if (map.hasFlag("-save") || incremental != null) {
+			try {
+				if (incremental != null) {
+					incremental.save();
+				} else {
+					MappedInvertedIndex.write(index, map.getPath("-save", "index.bin"));
+				}
+			} catch (IOException e) {
+				System.out.println("Unable to save index to: " + map.getPath("-save", "index.bin"));
+			}
 		}
 
 		if (map.hasFlag("-index")) {
@@ -82,6 +236,8 @@ public class Driver {
 		if (map.hasFlag("-query")) {
 			try {
 				parser.parse(map.getPath("-query"), map.containsKey("-exact"));
+			} catch (RejectedExecutionException e) {
+				System.out.println("Work queue full, stopped reading queries from: " + map.getPath("-query"));
 			} catch (Exception e) {
 				System.out.println("Unable to build index from the path: " + map.getPath("-path"));
 			}
@@ -97,18 +253,16 @@ public class Driver {
 			}
 		}
 
+		Thread watching = null;
+		if (watcher != null) {
+			watching = new Thread(watcher);
+			watching.start();
+		}
+
 		if (map.containsKey("-url") && map.containsKey("-port")) {
 			try {
 				crawler.crawl(new URL(map.get("-url")), map.getInteger("-limit", 50));
-				Server server = new Server(map.getInteger("-port", 8080));
-
-				ServletHandler handler = new ServletHandler();
-				handler.addServletWithMapping(new ServletHolder(new MessageServlet((ThreadSafeInvertedIndex) index)),
-						"/");
-				handler.addServletWithMapping(CookieConfigServlet.class, "/config");
-				server.setHandler(handler);
-				server.start();
-				server.join();
+				serve(index, map.getInteger("-port", 8080));
 			} catch (MalformedURLException e) {
 				System.out.println(crawler);
 			} catch (Exception e) {
@@ -117,9 +271,53 @@ public class Driver {
 			}
 		}
 
+		if (watching != null) {
+			if (map.containsKey("-port") && !map.containsKey("-url")) {
+				try {
+					serve(index, map.getInteger("-port", 8080));
+				} catch (Exception e) {
+					// jetty only declares the general exception
+					System.out.println("Unable to serve on port: " + map.getInteger("-port", 8080));
+					log.debug(e.getMessage(), e);
+				}
+			} else {
+				try {
+					watching.join();
+				} catch (InterruptedException e) {
+					System.out.println("Unable to keep watching the path: " + map.getPath("-path"));
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
 		if (queue != null) {
+			log.debug("Work queue {}", queue);
 			queue.shutdown();
 		}
 
+		if (fetchers != null) {
+			fetchers.shutdown();
+		}
+
+	}
+
+	/**
+	 * Serves searches of an index until the server is stopped.
+	 *
+	 * @param index
+	 *            index to search
+	 * @param port
+	 *            port to listen on
+	 * @throws Exception
+	 */
+	private static void serve(InvertedIndexInterface index, int port) throws Exception {
+		Server server = new Server(port);
+
+		ServletHandler handler = new ServletHandler();
+		handler.addServletWithMapping(new ServletHolder(new MessageServlet(index)), "/");
+		handler.addServletWithMapping(CookieConfigServlet.class, "/config");
+		server.setHandler(handler);
+		server.start();
+		server.join();
 	}
 }
\ No newline at end of file
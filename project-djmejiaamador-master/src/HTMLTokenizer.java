@@ -0,0 +1,478 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Turns HTML into words in a single pass, without regular expressions and
+ * without building any intermediate copies of the document. Produces exactly
+ * the same words in the same order as
+ *
+ * <pre>
+ * WordParser.parseWords(HTMLCleaner.stripHTML(html))
+ * </pre>
+ *
+ * Each of the regular expressions used by {@link HTMLCleaner#stripHTML(String)}
+ * is replaced by a small hand-written stage that reads characters from the
+ * stage before it, and replaces anything it matches with a single space just
+ * like the regular expression would. The stages are chained in the same order
+ * as the passes of {@link HTMLCleaner}, and the last stage feeds
+ * {@link WordParser.Splitter} one character at a time.
+ *
+ * @see HTMLCleaner
+ * @see WordParser
+ */
+public class HTMLTokenizer {
+
+	/**
+	 * Parses the HTML into words and hands each word and its position to the
+	 * sink, starting at position 1.
+	 *
+	 * @param html
+	 *            text including HTML to parse
+	 * @param sink
+	 *            receives each word and its position
+	 * @return number of words found
+	 */
+	public static int tokenize(CharSequence html, TokenSink sink) {
+		return tokenize(new Source(html), sink);
+	}
+
+	/**
+	 * Parses HTML read from a reader into words and hands each word and its
+	 * position to the sink, starting at position 1. The HTML is read in small
+	 * chunks, and only text that has to be looked ahead at to decide whether
+	 * something is a comment, element, tag or entity is kept in memory.
+	 *
+	 * @param reader
+	 *            source of text including HTML to parse
+	 * @param sink
+	 *            receives each word and its position
+	 * @return number of words found
+	 * @throws IOException
+	 */
+	public static int tokenize(Reader reader, TokenSink sink) throws IOException {
+		try {
+			return tokenize(new ReaderSource(reader), sink);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Runs the characters of a source through every stage and splits the
+	 * result into words.
+	 *
+	 * @param source
+	 *            the document
+	 * @param sink
+	 *            receives each word and its position
+	 * @return number of words found
+	 */
+	private static int tokenize(Stage source, TokenSink sink) {
+		Stage stage = new CommentStage(source);
+		stage = new ElementStage(stage, "head");
+		stage = new ElementStage(stage, "style");
+		stage = new ElementStage(stage, "script");
+		stage = new TagStage(stage);
+		stage = new EntityStage(stage);
+
+		WordParser.Splitter words = new WordParser.Splitter(sink);
+		int c;
+		while ((c = stage.read()) >= 0) {
+			words.accept((char) c);
+		}
+		return words.finish();
+	}
+
+	/**
+	 * Checks whether a character ends a line, which the "." of a regular
+	 * expression never matches unless in DOTALL mode.
+	 *
+	 * @param c
+	 *            character to check
+	 * @return true if the character is a line terminator
+	 */
+	private static boolean isLineTerminator(int c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	/**
+	 * Checks whether a character is whitespace as matched by "\s" in a regular
+	 * expression that is not in Unicode mode.
+	 *
+	 * @param c
+	 *            character to check
+	 * @return true if the character is ASCII whitespace
+	 */
+	private static boolean isSpace(int c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	/**
+	 * A source of characters, either the document itself or the output of the
+	 * previous stage.
+	 */
+	private abstract static class Stage {
+
+		/**
+		 * Reads the next character.
+		 *
+		 * @return the next character, or -1 at the end of the document
+		 */
+		public abstract int read();
+	}
+
+	/**
+	 * Reads the characters of the document.
+	 */
+	private static class Source extends Stage {
+
+		private final CharSequence text;
+		private int next;
+
+		public Source(CharSequence text) {
+			this.text = text;
+			this.next = 0;
+		}
+
+		@Override
+		public int read() {
+			return next < text.length() ? text.charAt(next++) : -1;
+		}
+	}
+
+	/**
+	 * Reads the characters of the document from a reader, one chunk at a time.
+	 */
+	private static class ReaderSource extends Stage {
+
+		/** Number of characters read from the reader at once. */
+		private static final int CHUNK_SIZE = 8192;
+
+		private final Reader reader;
+		private final char[] chunk;
+		private int next;
+		private int length;
+
+		public ReaderSource(Reader reader) {
+			this.reader = reader;
+			this.chunk = new char[CHUNK_SIZE];
+			this.next = 0;
+			this.length = 0;
+		}
+
+		@Override
+		public int read() {
+			while (next == length) {
+				try {
+					length = reader.read(chunk);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+
+				next = 0;
+				if (length < 0) {
+					length = 0;
+					return -1;
+				}
+			}
+			return chunk[next++];
+		}
+	}
+
+	/**
+	 * A stage that replaces every match of one pattern with a single space.
+	 * Only looks for a match when it reaches the first character of the
+	 * pattern, and buffers whatever it has to read ahead to decide whether the
+	 * pattern matches there. Once a stage knows that the pattern cannot match
+	 * anywhere in the rest of the document, it stops looking.
+	 */
+	private abstract static class MatchStage extends Stage {
+
+		private final Stage input;
+		private final char trigger;
+
+		private char[] buffer;
+		private int start;
+		private int end;
+
+		/** Set once no later match is possible. */
+		protected boolean passthrough;
+
+		public MatchStage(Stage input, char trigger) {
+			this.input = input;
+			this.trigger = trigger;
+			this.buffer = new char[64];
+			this.start = 0;
+			this.end = 0;
+			this.passthrough = false;
+		}
+
+		/**
+		 * Returns a character ahead of the current one without consuming it.
+		 *
+		 * @param offset
+		 *            how far ahead to look, 0 being the current character
+		 * @return the character, or -1 if the document ends first
+		 */
+		protected int peek(int offset) {
+			while (end - start <= offset) {
+				int c = input.read();
+				if (c < 0) {
+					return -1;
+				}
+
+				if (end == buffer.length) {
+					if (start > 0) {
+						System.arraycopy(buffer, start, buffer, 0, end - start);
+						end -= start;
+						start = 0;
+					} else {
+						buffer = Arrays.copyOf(buffer, buffer.length * 2);
+					}
+				}
+				buffer[end++] = (char) c;
+			}
+			return buffer[start + offset];
+		}
+
+		/**
+		 * Returns how many characters a code point takes up at an offset.
+		 *
+		 * @param offset
+		 *            offset of the code point
+		 * @return 2 for a surrogate pair, 1 otherwise
+		 */
+		protected int codePointLength(int offset) {
+			int c = peek(offset);
+			if (Character.isHighSurrogate((char) c)) {
+				int next = peek(offset + 1);
+				if (next >= 0 && Character.isLowSurrogate((char) next)) {
+					return 2;
+				}
+			}
+			return 1;
+		}
+
+		/**
+		 * Returns the offset of the next occurrence of a character.
+		 *
+		 * @param c
+		 *            character to look for
+		 * @param offset
+		 *            where to start looking
+		 * @return offset of the character, or -1 if the document ends first
+		 */
+		protected int find(char c, int offset) {
+			int next;
+			while ((next = peek(offset)) >= 0) {
+				if (next == c) {
+					return offset;
+				}
+				offset++;
+			}
+			return -1;
+		}
+
+		/**
+		 * Determines how long the match starting at the current character is.
+		 * Only called when the current character is the trigger character.
+		 *
+		 * @return number of characters matched, or 0 if there is no match
+		 */
+		protected abstract int match();
+
+		@Override
+		public int read() {
+			// nothing to look ahead for unless this is the trigger character
+			if (start == end) {
+				int c = input.read();
+				if (c != trigger || passthrough) {
+					return c;
+				}
+				start = 0;
+				end = 1;
+				buffer[0] = (char) c;
+			}
+
+			int c = peek(0);
+			if (c < 0) {
+				return -1;
+			}
+
+			if (c == trigger && !passthrough) {
+				int length = match();
+				if (length > 0) {
+					start += length;
+					return ' ';
+				}
+			}
+
+			start++;
+			return c;
+		}
+	}
+
+	/**
+	 * Replaces HTML comments, same as {@link HTMLCleaner#stripComments(String)}.
+	 * A comment never spans more than one line.
+	 */
+	private static class CommentStage extends MatchStage {
+
+		public CommentStage(Stage input) {
+			super(input, '<');
+		}
+
+		@Override
+		protected int match() {
+			if (peek(1) != '!' || peek(2) != '-' || peek(3) != '-') {
+				return 0;
+			}
+
+			for (int i = 4;; i++) {
+				int c = peek(i);
+				if (c < 0) {
+					passthrough = true;
+					return 0;
+				}
+				if (isLineTerminator(c)) {
+					return 0;
+				}
+				if (c == '-' && peek(i + 1) == '-' && peek(i + 2) == '>') {
+					return i + 3;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replaces an element and everything inside it, same as
+	 * {@link HTMLCleaner#stripElement(String, String)}. The element name is
+	 * matched ignoring case, and the closing name may appear anywhere after
+	 * the end of the opening tag.
+	 */
+	private static class ElementStage extends MatchStage {
+
+		private final String name;
+
+		public ElementStage(Stage input, String name) {
+			super(input, '<');
+			this.name = name;
+		}
+
+		/**
+		 * Checks whether the element name appears at an offset, ignoring the
+		 * case of ASCII letters only.
+		 *
+		 * @param offset
+		 *            where to check
+		 * @return true if the name starts at the offset
+		 */
+		private boolean isName(int offset) {
+			for (int i = 0; i < name.length(); i++) {
+				int c = peek(offset + i);
+				if (c >= 'A' && c <= 'Z') {
+					c += 'a' - 'A';
+				}
+				if (c != name.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		protected int match() {
+			if (!isName(1)) {
+				return 0;
+			}
+
+			// if any of these are missing here, they are missing later too
+			int open = find('>', name.length() + 1);
+			if (open < 0) {
+				passthrough = true;
+				return 0;
+			}
+
+			int close = open + 1;
+			while (!isName(close)) {
+				if (peek(close) < 0) {
+					passthrough = true;
+					return 0;
+				}
+				close++;
+			}
+
+			int end = find('>', close + name.length());
+			if (end < 0) {
+				passthrough = true;
+				return 0;
+			}
+
+			return end + 1;
+		}
+	}
+
+	/**
+	 * Replaces HTML tags, same as {@link HTMLCleaner#stripTags(String)}. A tag
+	 * has at least one character between its brackets, and may span lines.
+	 */
+	private static class TagStage extends MatchStage {
+
+		public TagStage(Stage input) {
+			super(input, '<');
+		}
+
+		@Override
+		protected int match() {
+			if (peek(1) < 0) {
+				return 0;
+			}
+
+			int end = find('>', 1 + codePointLength(1));
+			if (end < 0) {
+				passthrough = true;
+				return 0;
+			}
+
+			return end + 1;
+		}
+	}
+
+	/**
+	 * Replaces HTML entities, same as {@link HTMLCleaner#stripEntities(String)}.
+	 * An entity starts with a non-whitespace character, has at least one more
+	 * character before its semicolon, and never spans more than one line.
+	 */
+	private static class EntityStage extends MatchStage {
+
+		public EntityStage(Stage input) {
+			super(input, '&');
+		}
+
+		@Override
+		protected int match() {
+			int first = peek(1);
+			if (first < 0 || isSpace(first)) {
+				return 0;
+			}
+
+			int i = 1 + codePointLength(1);
+			int second = peek(i);
+			if (second < 0 || isLineTerminator(second)) {
+				return 0;
+			}
+
+			for (i += codePointLength(i);; i++) {
+				int c = peek(i);
+				if (c < 0 || isLineTerminator(c)) {
+					return 0;
+				}
+				if (c == ';') {
+					return i + 1;
+				}
+			}
+		}
+	}
+}
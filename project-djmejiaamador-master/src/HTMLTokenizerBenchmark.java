@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+/**
+ * Compares the throughput of the regular expression pipeline,
+ * {@link HTMLCleaner#stripHTML(String)} followed by
+ * {@link WordParser#clean(String)} and {@link WordParser#split(String)},
+ * against the single pass
+ * {@link HTMLTokenizer}, and checks that both find the same number of words.
+ * Uses every HTML file under a directory if one is given, otherwise a
+ * synthetic page with comments, scripts, styles, tags and entities.
+ *
+ * Usage: java HTMLTokenizerBenchmark [directory]
+ */
+public class HTMLTokenizerBenchmark {
+
+	/** Number of times every page is parsed per measurement. */
+	private static final int REPEAT = 20;
+
+	/** Number of measurements taken, the first few of which warm up. */
+	private static final int ROUNDS = 10;
+
+	/**
+	 * Builds a synthetic page of roughly 200KB.
+	 *
+	 * @return the page
+	 */
+	private static String synthetic() {
+		StringBuilder html = new StringBuilder();
+		html.append("<html><head><title>Benchmark</title>\n");
+		html.append("<style>body { color: red; }</style></head>\n<body>\n");
+
+		for (int i = 0; html.length() < 200000; i++) {
+			html.append("<!-- paragraph ").append(i).append(" -->\n");
+			html.append("<p class=\"text\">The quick brown fox &amp; the lazy dog jumped over ");
+			html.append("<a href=\"page").append(i).append(".html\">link ").append(i).append("</a> ");
+			html.append("caf\u00e9 na\u00efve &nbsp; r\u00e9sum\u00e9 &#169; end.</p>\n");
+
+			if (i % 10 == 0) {
+				html.append("<script type=\"text/javascript\">var x = ").append(i).append(";</script>\n");
+			}
+		}
+
+		html.append("</body></html>\n");
+		return html.toString();
+	}
+
+	/**
+	 * Times parsing every page, repeated {@link #REPEAT} times, keeping the
+	 * best of {@link #ROUNDS} rounds.
+	 *
+	 * @param pages
+	 *            pages to parse
+	 * @param tokenizer
+	 *            whether to use the tokenizer or the regular expressions
+	 * @return best average time per repeat in milliseconds
+	 */
+	private static double time(ArrayList<String> pages, boolean tokenizer) {
+		double best = Double.MAX_VALUE;
+		long words = 0;
+
+		for (int round = 0; round < ROUNDS; round++) {
+			long begin = System.nanoTime();
+			for (int i = 0; i < REPEAT; i++) {
+				words = parse(pages, tokenizer);
+			}
+			best = Math.min(best, (System.nanoTime() - begin) / 1e6 / REPEAT);
+		}
+
+		System.out.printf("%-10s %10.3f ms, %d words%n", tokenizer ? "tokenizer" : "regex", best, words);
+		return best;
+	}
+
+	/**
+	 * Parses every page once.
+	 *
+	 * @param pages
+	 *            pages to parse
+	 * @param tokenizer
+	 *            whether to use the tokenizer or the regular expressions
+	 * @return number of words found
+	 */
+	private static long parse(ArrayList<String> pages, boolean tokenizer) {
+		long words = 0;
+		for (String page : pages) {
+			if (tokenizer) {
+				words += HTMLTokenizer.tokenize(page, (word, position) -> {
+				});
+			} else {
+				words += WordParser.split(WordParser.clean(HTMLCleaner.stripHTML(page))).length;
+			}
+		}
+		return words;
+	}
+
+	public static void main(String[] args) throws IOException {
+		ArrayList<String> pages = new ArrayList<>();
+		long bytes = 0;
+
+		if (args.length > 0) {
+			for (Path path : HTMLTraverser.traverse(Paths.get(args[0]))) {
+				pages.add(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+				bytes += Files.size(path);
+			}
+		} else {
+			pages.add(synthetic());
+			bytes = pages.get(0).getBytes(StandardCharsets.UTF_8).length;
+		}
+
+		System.out.printf("%d pages, %.1f KB%n", pages.size(), bytes / 1024.0);
+		double regex = time(pages, false);
+		double tokenizer = time(pages, true);
+		System.out.printf("regex: %.1f MB/s, tokenizer: %.1f MB/s, speedup %.2fx%n", bytes / regex / 1e3,
+				bytes / tokenizer / 1e3, regex / tokenizer);
+	}
+}
@@ -1,8 +1,12 @@
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
 
 /**
  * traverse a directory of HTML files and its sub-director
@@ -21,38 +25,148 @@ public class HTMLTraverser {
 	public static ArrayList<Path> traverse(Path path) throws IOException {
 
 		ArrayList<Path> paths = new ArrayList<>();
-		traverse(path, paths);
+		traverse(path, paths::add);
 		return paths;
 	}
 
 	/**
-	 * runs through each file and adds it to an array of path. If subdirectory
-	 * is found it will make a recursive call and travel the subdirectory
+	 * runs through each file and hands it to the consumer as soon as it is
+	 * found, instead of collecting every path first. If subdirectory is found
+	 * it will make a recursive call and travel the subdirectory
 	 *
-	 * @param directory
+	 * @param path
 	 *            to traverse
-	 * @param paths
-	 *            array list of all files found
+	 * @param consumer
+	 *            receives every HTML file found
 	 * @throws IOException
 	 */
-	private static void traverse(Path path, ArrayList<Path> paths) throws IOException {
+	public static void traverse(Path path, Consumer<Path> consumer) throws IOException {
 
 		if (Files.isDirectory(path)) {
 
 			try (DirectoryStream<Path> listing = Files.newDirectoryStream(path)) {
 
 				for (Path file : listing) {
-					traverse(file, paths);
+					traverse(file, consumer);
 				}
 			}
 		} else {
 
-			if (path.toString().toLowerCase().endsWith(".html") || path.toString().toLowerCase().endsWith(".htm")) {
-				paths.add(path);
+			if (isHTML(path)) {
+				consumer.accept(path);
+			}
+		}
+	}
+
+	/**
+	 * Traverses a directory in parallel, listing every subdirectory in its own
+	 * fork/join task, and collects the HTML files found. The files are not in
+	 * any particular order.
+	 *
+	 * @param path
+	 *            to traverse
+	 * @param threads
+	 *            number of threads to traverse with
+	 * @return all HTML files found
+	 * @throws IOException
+	 */
+	public static ArrayList<Path> traverse(Path path, int threads) throws IOException {
+
+		ArrayList<Path> paths = new ArrayList<>();
+		traverse(path, file -> {
+			synchronized (paths) {
+				paths.add(file);
 			}
+		}, threads);
+		return paths;
+	}
+
+	/**
+	 * Traverses a directory in parallel, listing every subdirectory in its own
+	 * fork/join task, and hands each HTML file to the consumer as soon as it is
+	 * found. The consumer is called from several threads at once, in no
+	 * particular order, and must be thread safe.
+	 *
+	 * @param path
+	 *            to traverse
+	 * @param consumer
+	 *            receives every HTML file found
+	 * @param threads
+	 *            number of threads to traverse with
+	 * @throws IOException
+	 */
+	public static void traverse(Path path, Consumer<Path> consumer, int threads) throws IOException {
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new DirectoryTask(path, consumer));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			pool.shutdown();
 		}
 	}
 
+	/**
+	 * Lists one directory, forking a new task for every subdirectory and
+	 * handing every HTML file to the consumer.
+	 */
+	@SuppressWarnings("serial")
+	private static class DirectoryTask extends RecursiveAction {
+
+		private final Path path;
+		private final Consumer<Path> consumer;
+
+		public DirectoryTask(Path path, Consumer<Path> consumer) {
+			this.path = path;
+			this.consumer = consumer;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (!Files.isDirectory(path)) {
+				if (isHTML(path)) {
+					consumer.accept(path);
+				}
+				return;
+			}
+
+			ArrayList<DirectoryTask> subdirectories = new ArrayList<>();
+
+			try (DirectoryStream<Path> listing = Files.newDirectoryStream(path)) {
+
+				for (Path file : listing) {
+					if (Files.isDirectory(file)) {
+						DirectoryTask task = new DirectoryTask(file, consumer);
+						task.fork();
+						subdirectories.add(task);
+					} else if (isHTML(file)) {
+						consumer.accept(file);
+					}
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			for (DirectoryTask task : subdirectories) {
+				task.join();
+			}
+		}
+	}
+
+	/**
+	 * Checks whether a file is an HTML file by its extension.
+	 *
+	 * @param path
+	 *            file to check
+	 * @return true if the file ends with .html or .htm
+	 */
+	public static boolean isHTML(Path path) {
+		String name = path.toString().toLowerCase();
+		return name.endsWith(".html") || name.endsWith(".htm");
+	}
+
 	/**
 	 * Prints an array list of Paths.
 	 *
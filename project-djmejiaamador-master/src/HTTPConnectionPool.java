@@ -0,0 +1,1094 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Keeps HTTP/1.1 connections open between requests to the same host, so that
+ * crawling many pages from one site does not pay for a new TCP connection per
+ * page. Responses are read exactly to their end, using either the
+ * Content-Length header or chunked transfer encoding, which is what makes it
+ * safe to send the next request on the same socket. Connections that sit idle
+ * for too long are closed, to any host, as requests come and go, and hosts
+ * with nothing open are forgotten. No more than a fixed number of connections
+ * are ever open to one host; threads wait for a connection once the limit is
+ * hit.
+ *
+ * Bodies can be read as they arrive with
+ * {@link #fetch(URL, HTTPFetcher.HTTP, Map, long, BodyHandler)} instead of
+ * being buffered first. A handler that stops reading early, such as one that
+ * only wanted HTML, costs the connection unless little of the body is left.
+ * Bodies sent with a gzip or deflate Content-Encoding are decoded on the fly,
+ * so handlers and {@link Response#getBody()} always see the original bytes.
+ *
+ * @see HTTPFetcher#fetchHTML(URL, HTTPConnectionPool, long)
+ */
+public class HTTPConnectionPool implements Closeable {
+
+	/** Default most connections open to a single host. */
+	public static final int DEFAULT_MAX_PER_HOST = 4;
+
+	/** Default milliseconds a connection may sit idle before it is closed. */
+	public static final long DEFAULT_IDLE_TIMEOUT = 15000;
+
+	/** Longest header or chunk size line accepted. */
+	private static final int MAX_LINE = 8192;
+
+	/**
+	 * Most bytes of a body left unread by a handler that are read and thrown
+	 * away to keep the connection, instead of closing it.
+	 */
+	private static final long DRAIN_LIMIT = 65536;
+
+	/**
+	 * Reads a response body as it arrives.
+	 *
+	 * @param <T>
+	 *            what is made of the response
+	 */
+	public static interface BodyHandler<T> {
+
+		/**
+		 * Handles a response. The body does not need to be read to its end,
+		 * and must not be used after returning.
+		 *
+		 * @param response
+		 *            status and headers of the response
+		 * @param body
+		 *            the body, after undoing any chunked encoding
+		 * @return what was made of the response
+		 * @throws IOException
+		 */
+		public T handle(Response response, InputStream body) throws IOException;
+	}
+
+	private final int maxPerHost;
+	private final long idleTimeout;
+
+	/** Maps "host:port" to the connections open to it. */
+	private final HashMap<String, Host> hosts;
+
+	/** When every host is next checked for idle connections, in milliseconds. */
+	private long nextSweep;
+
+	private volatile boolean closed;
+
+	private final AtomicInteger opened;
+	private final AtomicInteger reused;
+
+	/** Number of connections closed because a body was not read to its end. */
+	private final AtomicInteger aborted;
+
+	/** Number of body bytes read off the wire, before any decoding. */
+	private final AtomicLong received;
+
+	/** Number of body bytes handed to handlers, after any decoding. */
+	private final AtomicLong decoded;
+
+	public HTTPConnectionPool() {
+		this(DEFAULT_MAX_PER_HOST, DEFAULT_IDLE_TIMEOUT);
+	}
+
+	/**
+	 * Initializes an empty pool.
+	 *
+	 * @param maxPerHost
+	 *            most connections open to a single host at once
+	 * @param idleTimeout
+	 *            milliseconds a connection may sit idle before it is closed
+	 */
+	public HTTPConnectionPool(int maxPerHost, long idleTimeout) {
+		if (maxPerHost < 1) {
+			throw new IllegalArgumentException("At least one connection per host is required.");
+		}
+
+		this.maxPerHost = maxPerHost;
+		this.idleTimeout = idleTimeout;
+		this.hosts = new HashMap<>();
+		this.nextSweep = 0;
+		this.closed = false;
+		this.opened = new AtomicInteger();
+		this.reused = new AtomicInteger();
+		this.aborted = new AtomicInteger();
+		this.received = new AtomicLong();
+		this.decoded = new AtomicLong();
+	}
+
+	/**
+	 * Sends a request for a URL and reads the whole response, reusing an idle
+	 * connection to the host if there is one. Since a server may close an idle
+	 * connection at any time, a request that fails on a reused connection is
+	 * tried once more on a new one.
+	 *
+	 * @param url
+	 *            url to fetch
+	 * @param type
+	 *            HTTP method to use, which should be GET or HEAD
+	 * @return the response
+	 * @throws IOException
+	 */
+	public Response fetch(URL url, HTTPFetcher.HTTP type) throws IOException {
+		return fetch(url, type, Collections.emptyMap());
+	}
+
+	/**
+	 * Sends a request with extra header fields for a URL and reads the whole
+	 * response, the same way as {@link #fetch(URL, HTTPFetcher.HTTP)}.
+	 *
+	 * @param url
+	 *            url to fetch
+	 * @param type
+	 *            HTTP method to use, which should be GET or HEAD
+	 * @param headers
+	 *            extra header field names mapped to values
+	 * @return the response
+	 * @throws IOException
+	 */
+	public Response fetch(URL url, HTTPFetcher.HTTP type, Map<String, String> headers) throws IOException {
+		return fetch(url, type, headers, Long.MAX_VALUE, (response, body) -> {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = body.read(buffer)) >= 0) {
+				bytes.write(buffer, 0, read);
+			}
+			return new Response(response, bytes.toByteArray());
+		});
+	}
+
+	/**
+	 * Sends a request for a URL and hands the response to a handler as soon as
+	 * its headers are read, so that the body is read as it arrives without
+	 * ever being buffered whole. Only a request that fails before the handler
+	 * is called is tried again on a new connection.
+	 *
+	 * @param <T>
+	 *            what the handler makes of the response
+	 * @param url
+	 *            url to fetch
+	 * @param type
+	 *            HTTP method to use, which should be GET or HEAD
+	 * @param headers
+	 *            extra header field names mapped to values
+	 * @param maxBody
+	 *            most bytes of body to read, before or after decoding, past
+	 *            which reading it fails
+	 * @param handler
+	 *            reads the response
+	 * @return what the handler made of the response
+	 * @throws IOException
+	 *             if the request fails, the body is too large, or the handler
+	 *             fails
+	 */
+	public <T> T fetch(URL url, HTTPFetcher.HTTP type, Map<String, String> headers, long maxBody,
+			BodyHandler<T> handler) throws IOException {
+		Host host = host(url);
+		try {
+			return fetch(host, url, type, headers, maxBody, handler);
+		} finally {
+			done(host);
+		}
+	}
+
+	/**
+	 * Sends a request on a connection to the given host, the same way as
+	 * {@link #fetch(URL, HTTPFetcher.HTTP, Map, long, BodyHandler)}.
+	 *
+	 * @param <T>
+	 *            what the handler makes of the response
+	 * @param host
+	 *            connections to the host of the url
+	 * @param url
+	 *            url to fetch
+	 * @param type
+	 *            HTTP method to use, which should be GET or HEAD
+	 * @param headers
+	 *            extra header field names mapped to values
+	 * @param maxBody
+	 *            most bytes of body to read, before or after decoding
+	 * @param handler
+	 *            reads the response
+	 * @return what the handler made of the response
+	 * @throws IOException
+	 */
+	private <T> T fetch(Host host, URL url, HTTPFetcher.HTTP type, Map<String, String> headers, long maxBody,
+			BodyHandler<T> handler) throws IOException {
+		String request = HTTPFetcher.craftHTTPRequest(url, type, true, headers);
+
+		for (int attempt = 0;; attempt++) {
+			Connection connection = host.acquire(attempt == 0);
+			boolean stale = connection.requests > 0;
+			Response response;
+
+			try {
+				response = connection.exchange(request, type, maxBody);
+			} catch (IOException e) {
+				host.discard(connection);
+				if (stale && attempt == 0) {
+					continue;
+				}
+				throw e;
+			}
+
+			if (stale) {
+				reused.incrementAndGet();
+			}
+
+			boolean reusable = false;
+			Inflater inflater = null;
+			Counter body = null;
+			try {
+				InputStream stream = response.stream;
+				String encoding = response.getHeader("Content-Encoding");
+
+				if (encoding != null && !response.stream.finished) {
+					encoding = encoding.trim().toLowerCase();
+					if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+						stream = new GZIPInputStream(stream, 8192);
+					} else if (encoding.equals("deflate")) {
+						inflater = inflater(response.stream);
+						stream = new InflaterInputStream(response.stream.peeked, inflater, 8192);
+					}
+				}
+
+				body = new Counter(stream, maxBody);
+				T result = handler.handle(response, body);
+
+				// whatever the handler left unread is still on the socket
+				boolean finished = response.stream.drain(DRAIN_LIMIT);
+				if (!finished) {
+					aborted.incrementAndGet();
+				}
+				reusable = finished && response.keepAlive;
+				return result;
+			} finally {
+				received.addAndGet(response.stream.total);
+				if (body != null) {
+					decoded.addAndGet(body.count);
+					// frees the native memory of a gzip decoder, leaves the connection open
+					body.close();
+				}
+				if (inflater != null) {
+					inflater.end();
+				}
+
+				if (reusable) {
+					host.release(connection);
+				} else {
+					host.discard(connection);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Picks the decoder for a deflate body. The standard says it is zlib
+	 * wrapped, but some servers send raw deflate data, so the first two bytes
+	 * are looked at to tell which. They are left for the decoder to read from
+	 * {@link Body#peeked}.
+	 *
+	 * @param body
+	 *            the body
+	 * @return a decoder for the body
+	 * @throws IOException
+	 */
+	private static Inflater inflater(Body body) throws IOException {
+		PushbackInputStream in = new PushbackInputStream(body, 2);
+		byte[] header = new byte[2];
+		int read = 0;
+		int n;
+		while (read < 2 && (n = in.read(header, read, 2 - read)) >= 0) {
+			read += n;
+		}
+		in.unread(header, 0, read);
+		body.peeked = in;
+
+		// a zlib header uses method 8 and is a multiple of 31
+		int first = header[0] & 0xFF;
+		int second = header[1] & 0xFF;
+		boolean zlib = read == 2 && (first & 0x0F) == 8 && (first << 8 | second) % 31 == 0;
+		return new Inflater(!zlib);
+	}
+
+	/**
+	 * Returns the connections to the host of a URL, creating the entry if
+	 * needed. The entry is kept until {@link #done(Host)} is called for it.
+	 *
+	 * @param url
+	 *            url to look at
+	 * @return connections to its host
+	 */
+	private synchronized Host host(URL url) {
+		int port = url.getPort() < 0 ? HTTPFetcher.DEFAULT_PORT : url.getPort();
+		String key = url.getHost() + ":" + port;
+
+		sweep();
+		Host host = hosts.get(key);
+		if (host == null) {
+			host = new Host(url.getHost(), port);
+			hosts.put(key, host);
+		}
+		host.users++;
+		return host;
+	}
+
+	/**
+	 * Lets go of the connections to a host once a request is done with them.
+	 *
+	 * @param host
+	 *            connections returned by {@link #host(URL)}
+	 */
+	private synchronized void done(Host host) {
+		host.users--;
+		sweep();
+	}
+
+	/**
+	 * Closes connections that have been idle too long to every host, not just
+	 * the ones still being fetched from, and forgets hosts with nothing open
+	 * and no request under way. Only looks every half of the idle timeout, so
+	 * it costs next to nothing per request. Must be called while holding the
+	 * lock.
+	 */
+	private void sweep() {
+		long now = System.currentTimeMillis();
+		if (now < nextSweep) {
+			return;
+		}
+		nextSweep = now + Math.max(1, idleTimeout / 2);
+
+		Iterator<Host> iterator = hosts.values().iterator();
+		while (iterator.hasNext()) {
+			Host host = iterator.next();
+			synchronized (host) {
+				host.evict();
+				if (host.open == 0 && host.users == 0) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Closes every connection that is not in use right now.
+	 */
+	public void closeIdle() {
+		ArrayList<Host> all;
+		synchronized (this) {
+			all = new ArrayList<>(hosts.values());
+		}
+
+		for (Host host : all) {
+			host.closeIdle();
+		}
+	}
+
+	/**
+	 * Closes every idle connection, and every other connection as soon as it is
+	 * done with. No more requests may be made afterwards.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		closeIdle();
+	}
+
+	/**
+	 * Returns how many connections have been opened.
+	 *
+	 * @return number of connections opened
+	 */
+	public int getOpened() {
+		return opened.get();
+	}
+
+	/**
+	 * Returns how many requests were sent on a connection that was already
+	 * used before.
+	 *
+	 * @return number of requests that reused a connection
+	 */
+	public int getReused() {
+		return reused.get();
+	}
+
+	/**
+	 * Returns how many body bytes were read off the wire, before decoding.
+	 *
+	 * @return number of bytes received
+	 */
+	public long getReceived() {
+		return received.get();
+	}
+
+	/**
+	 * Returns how many body bytes were handed over after decoding, which is
+	 * more than were received if servers compressed the bodies.
+	 *
+	 * @return number of bytes decoded
+	 */
+	public long getDecoded() {
+		return decoded.get();
+	}
+
+	/**
+	 * Returns how many connections were closed because a body was left
+	 * unread, such as one that was not HTML or was too large.
+	 *
+	 * @return number of responses cut short
+	 */
+	public int getAborted() {
+		return aborted.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%d connections opened, %d requests reused one, %d responses cut short, %d bytes received, %d decoded",
+				getOpened(), getReused(), getAborted(), getReceived(), getDecoded());
+	}
+
+	/**
+	 * Reads a line terminated by a line feed, with any carriage return before
+	 * it removed.
+	 *
+	 * @param in
+	 *            stream to read from
+	 * @return the line, or null if the stream ended before any byte was read
+	 * @throws IOException
+	 *             if the line is too long or the stream ends part way
+	 */
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int b;
+
+		while ((b = in.read()) != '\n') {
+			if (b < 0) {
+				if (line.length() == 0) {
+					return null;
+				}
+				throw new EOFException("Connection closed in the middle of a line.");
+			}
+			if (line.length() == MAX_LINE) {
+				throw new IOException("Line longer than " + MAX_LINE + " bytes.");
+			}
+			line.append((char) b);
+		}
+
+		int end = line.length();
+		if (end > 0 && line.charAt(end - 1) == '\r') {
+			line.setLength(end - 1);
+		}
+		return line.toString();
+	}
+
+	/**
+	 * Counts the bytes read through it, and fails once there are too many, so
+	 * that a small compressed body cannot decode into an enormous one.
+	 */
+	private static class Counter extends FilterInputStream {
+
+		private final long max;
+		private long count;
+
+		public Counter(InputStream in, long max) {
+			super(in);
+			this.max = max;
+			this.count = 0;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b >= 0) {
+				count(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int read = in.read(buffer, offset, length);
+			if (read > 0) {
+				count(read);
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(n);
+			count(skipped);
+			return skipped;
+		}
+
+		private void count(long read) throws IOException {
+			count += read;
+			if (count > max) {
+				throw new IOException("Response body larger than " + max + " bytes.");
+			}
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+
+	/**
+	 * The body of a response as it is read off the connection. Reads no
+	 * further than the end of the body, so the next response on the same
+	 * connection is left untouched.
+	 */
+	private static class Body extends InputStream {
+
+		private final InputStream in;
+		private final boolean chunked;
+		private final long max;
+
+		/** Bytes left in the body or current chunk, or -1 to read to the end. */
+		private long remaining;
+
+		/** Number of bytes read so far. */
+		private long total;
+
+		/** Number of chunks started so far. */
+		private int chunks;
+
+		private boolean finished;
+
+		/** The body with its first bytes put back after peeking at them. */
+		private PushbackInputStream peeked;
+
+		/**
+		 * Initializes a body.
+		 *
+		 * @param in
+		 *            stream of the connection
+		 * @param length
+		 *            length of the body, or -1 if it ends with the connection
+		 *            or is chunked
+		 * @param chunked
+		 *            whether the body uses chunked transfer encoding
+		 * @param max
+		 *            most bytes to read before failing
+		 */
+		public Body(InputStream in, long length, boolean chunked, long max) {
+			this.in = in;
+			this.chunked = chunked;
+			this.max = max;
+			this.remaining = chunked ? 0 : length;
+			this.total = 0;
+			this.chunks = 0;
+			this.finished = !chunked && length == 0;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (finished) {
+				return -1;
+			}
+			if (length == 0) {
+				return 0;
+			}
+
+			if (chunked && remaining == 0) {
+				nextChunk();
+				if (finished) {
+					return -1;
+				}
+			}
+
+			int wanted = remaining < 0 ? length : (int) Math.min(length, remaining);
+			int read = in.read(buffer, offset, wanted);
+			if (read < 0) {
+				if (remaining < 0) {
+					finished = true;
+					return -1;
+				}
+				throw new EOFException("Connection closed before the end of the response.");
+			}
+
+			total += read;
+			if (total > max) {
+				throw new IOException("Response body larger than " + max + " bytes.");
+			}
+
+			if (remaining > 0) {
+				remaining -= read;
+				finished = !chunked && remaining == 0;
+			}
+			return read;
+		}
+
+		@Override
+		public int available() throws IOException {
+			if (finished || (chunked && remaining == 0)) {
+				return 0;
+			}
+			int buffered = in.available();
+			return remaining < 0 ? buffered : (int) Math.min(buffered, remaining);
+		}
+
+		/**
+		 * Reads the size line of the next chunk, or the trailing header lines
+		 * after the last one.
+		 *
+		 * @throws IOException
+		 *             if the chunks are malformed or the stream ends first
+		 */
+		private void nextChunk() throws IOException {
+			if (chunks > 0 && !"".equals(readLine(in))) {
+				throw new IOException("Chunk not followed by a line break.");
+			}
+			chunks++;
+
+			String line = readLine(in);
+			if (line == null) {
+				throw new EOFException("Connection closed before the last chunk.");
+			}
+
+			long size;
+			try {
+				// chunk extensions after a semicolon are ignored
+				int extension = line.indexOf(';');
+				size = Long.parseLong((extension < 0 ? line : line.substring(0, extension)).trim(), 16);
+			} catch (NumberFormatException e) {
+				throw new IOException("Malformed chunk size: " + line, e);
+			}
+
+			if (size < 0) {
+				throw new IOException("Malformed chunk size: " + line);
+			}
+
+			if (size == 0) {
+				String trailer;
+				while ((trailer = readLine(in)) != null && !trailer.isEmpty()) {
+					continue;
+				}
+				finished = true;
+			}
+			remaining = size;
+		}
+
+		/**
+		 * Reads and throws away the rest of the body, unless more than a
+		 * given number of bytes are known to be left or turn out to be.
+		 *
+		 * @param limit
+		 *            most bytes to throw away
+		 * @return true if the whole body has now been read
+		 */
+		public boolean drain(long limit) {
+			if (finished) {
+				return true;
+			}
+			if (remaining < 0 || (!chunked && remaining > limit)) {
+				return false;
+			}
+
+			byte[] buffer = new byte[8192];
+			long skipped = 0;
+			try {
+				int read;
+				while (skipped <= limit && (read = read(buffer, 0, buffer.length)) >= 0) {
+					skipped += read;
+				}
+			} catch (IOException e) {
+				return false;
+			}
+			return finished;
+		}
+	}
+
+	/**
+	 * The status, headers and body of a response.
+	 */
+	public static class Response {
+
+		private final int status;
+		private final List<String> headers;
+		private final TreeMap<String, String> fields;
+		private final byte[] body;
+		private final boolean keepAlive;
+
+		/** Body as it is read, or null once buffered. */
+		private final Body stream;
+
+		private Response(int status, List<String> headers, TreeMap<String, String> fields, Body stream,
+				boolean keepAlive) {
+			this.status = status;
+			this.headers = headers;
+			this.fields = fields;
+			this.body = null;
+			this.stream = stream;
+			this.keepAlive = keepAlive;
+		}
+
+		/**
+		 * Initializes a copy of a streamed response with its body read.
+		 *
+		 * @param response
+		 *            response whose body was read
+		 * @param body
+		 *            the body
+		 */
+		private Response(Response response, byte[] body) {
+			this.status = response.status;
+			this.headers = response.headers;
+			this.fields = response.fields;
+			this.body = body;
+			this.stream = null;
+			this.keepAlive = response.keepAlive;
+		}
+
+		/**
+		 * Returns the status code.
+		 *
+		 * @return status code, such as 200
+		 */
+		public int getStatus() {
+			return status;
+		}
+
+		/**
+		 * Returns the status line followed by every header line, the same
+		 * lines {@link HTTPFetcher#fetchLines(URL, String)} returns before the
+		 * blank line.
+		 *
+		 * @return unmodifiable list of the header lines
+		 */
+		public List<String> getHeaders() {
+			return headers;
+		}
+
+		/**
+		 * Returns the value of a header, ignoring the case of its name. If the
+		 * header appears more than once, returns the last value.
+		 *
+		 * @param name
+		 *            name of the header
+		 * @return the value, or null if the header is missing
+		 */
+		public String getHeader(String name) {
+			return fields.get(name);
+		}
+
+		/**
+		 * Returns the body as sent, after undoing any chunked encoding.
+		 *
+		 * @return the body, or null if the response was handed to a
+		 *         {@link BodyHandler} to read
+		 */
+		public byte[] getBody() {
+			return body;
+		}
+	}
+
+	/**
+	 * One open socket to a host, along with its buffered streams.
+	 */
+	private static class Connection {
+
+		private final Socket socket;
+		private final InputStream in;
+		private final OutputStream out;
+
+		/** Number of requests sent so far. */
+		private int requests;
+
+		/** When this connection was last returned to the pool. */
+		private long idleSince;
+
+		public Connection(String host, int port) throws IOException {
+			this.socket = new Socket(host, port);
+			this.in = new BufferedInputStream(socket.getInputStream());
+			this.out = new BufferedOutputStream(socket.getOutputStream());
+			this.requests = 0;
+		}
+
+		/**
+		 * Sends a request and reads the status line and headers of the
+		 * response, leaving the body to be read from the response.
+		 *
+		 * @param request
+		 *            full HTTP request
+		 * @param type
+		 *            HTTP method of the request
+		 * @param maxBody
+		 *            most bytes of body that may be read
+		 * @return the response
+		 * @throws IOException
+		 */
+		public Response exchange(String request, HTTPFetcher.HTTP type, long maxBody) throws IOException {
+			requests++;
+			out.write(request.getBytes(StandardCharsets.UTF_8));
+			out.flush();
+
+			ArrayList<String> headers = new ArrayList<>();
+			TreeMap<String, String> fields = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+			int status;
+
+			// skip any interim 1xx responses
+			do {
+				headers.clear();
+				fields.clear();
+
+				String line = readLine(in);
+				if (line == null) {
+					throw new EOFException("Connection closed before a response was received.");
+				}
+				headers.add(line);
+				status = parseStatus(line);
+
+				while (true) {
+					line = readLine(in);
+					if (line == null) {
+						throw new EOFException("Connection closed in the middle of the headers.");
+					}
+					if (line.isEmpty()) {
+						break;
+					}
+
+					headers.add(line);
+					int colon = line.indexOf(':');
+					if (colon > 0) {
+						fields.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+					}
+				}
+			} while (status / 100 == 1);
+
+			boolean keepAlive = headers.get(0).startsWith(HTTPFetcher.version)
+					? !"close".equalsIgnoreCase(fields.get("Connection"))
+					: "keep-alive".equalsIgnoreCase(fields.get("Connection"));
+
+			String encoding = fields.get("Transfer-Encoding");
+			String length = fields.get("Content-Length");
+			Body body;
+
+			if (type == HTTPFetcher.HTTP.HEAD || status == 204 || status == 304) {
+				// never has a body, whatever the headers say
+				body = new Body(in, 0, false, maxBody);
+			} else if (encoding != null && encoding.toLowerCase().contains("chunked")) {
+				body = new Body(in, -1, true, maxBody);
+			} else if (length != null) {
+				long size;
+				try {
+					size = Long.parseLong(length);
+				} catch (NumberFormatException e) {
+					throw new IOException("Malformed Content-Length: " + length, e);
+				}
+
+				if (size < 0) {
+					throw new IOException("Malformed Content-Length: " + length);
+				}
+				body = new Body(in, size, false, maxBody);
+			} else {
+				// the end of the body is the end of the connection
+				body = new Body(in, -1, false, maxBody);
+				keepAlive = false;
+			}
+
+			return new Response(status, Collections.unmodifiableList(headers), fields, body, keepAlive);
+		}
+
+		/**
+		 * Closes the socket, ignoring any errors.
+		 */
+		public void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// nothing left to do with it either way
+			}
+		}
+	}
+
+	/**
+	 * Parses the status code out of a status line.
+	 *
+	 * @param line
+	 *            status line, such as "HTTP/1.1 200 OK"
+	 * @return the status code
+	 * @throws IOException
+	 *             if the line is not a status line
+	 */
+	private static int parseStatus(String line) throws IOException {
+		String[] parts = line.split(" ", 3);
+		try {
+			if (parts.length >= 2 && parts[0].startsWith("HTTP/")) {
+				return Integer.parseInt(parts[1]);
+			}
+		} catch (NumberFormatException e) {
+			// reported below
+		}
+		throw new IOException("Malformed status line: " + line);
+	}
+
+	/**
+	 * The connections open to one host.
+	 */
+	private class Host {
+
+		private final String name;
+		private final int port;
+
+		/** Idle connections, most recently used first. */
+		private final ArrayDeque<Connection> idle;
+
+		/** Number of connections open, idle or not. */
+		private int open;
+
+		/**
+		 * Number of requests that may still use these connections, guarded
+		 * by the pool's lock rather than this host's.
+		 */
+		private int users;
+
+		public Host(String name, int port) {
+			this.name = name;
+			this.port = port;
+			this.idle = new ArrayDeque<>();
+			this.open = 0;
+			this.users = 0;
+		}
+
+		/**
+		 * Takes an idle connection, or opens a new one if the limit allows,
+		 * waiting for one to be released otherwise.
+		 *
+		 * @param reuse
+		 *            whether an idle connection may be used
+		 * @return a connection only the caller may use until it is released
+		 *         or discarded
+		 * @throws IOException
+		 */
+		public Connection acquire(boolean reuse) throws IOException {
+			synchronized (this) {
+				while (true) {
+					if (closed) {
+						throw new IOException("Connection pool is closed.");
+					}
+
+					evict();
+					if (reuse && !idle.isEmpty()) {
+						return idle.pop();
+					}
+
+					if (open < maxPerHost) {
+						break;
+					}
+
+					// make room for a new connection by dropping an idle one
+					if (!idle.isEmpty()) {
+						idle.removeLast().close();
+						open--;
+						continue;
+					}
+
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Interrupted waiting for a connection.");
+					}
+				}
+				open++;
+			}
+
+			// connect without holding up other threads
+			try {
+				Connection connection = new Connection(name, port);
+				opened.incrementAndGet();
+				return connection;
+			} catch (IOException e) {
+				synchronized (this) {
+					open--;
+					notifyAll();
+				}
+				throw e;
+			}
+		}
+
+		/**
+		 * Returns a connection to the pool after its response was fully read.
+		 *
+		 * @param connection
+		 *            connection to return
+		 */
+		public synchronized void release(Connection connection) {
+			if (closed) {
+				connection.close();
+				open--;
+			} else {
+				connection.idleSince = System.currentTimeMillis();
+				idle.push(connection);
+			}
+			notifyAll();
+		}
+
+		/**
+		 * Closes a connection that cannot be used again.
+		 *
+		 * @param connection
+		 *            connection to close
+		 */
+		public synchronized void discard(Connection connection) {
+			connection.close();
+			open--;
+			notifyAll();
+		}
+
+		/**
+		 * Closes connections that have been idle too long. Must be called
+		 * while holding the lock.
+		 */
+		private void evict() {
+			long now = System.currentTimeMillis();
+			while (!idle.isEmpty() && now - idle.peekLast().idleSince > idleTimeout) {
+				idle.removeLast().close();
+				open--;
+			}
+		}
+
+		/**
+		 * Closes every idle connection.
+		 */
+		public synchronized void closeIdle() {
+			while (!idle.isEmpty()) {
+				idle.pop().close();
+				open--;
+			}
+			notifyAll();
+		}
+	}
+}
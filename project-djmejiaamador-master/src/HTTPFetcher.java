@@ -1,27 +1,48 @@
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.net.MalformedURLException;
 import java.net.Socket;
 import java.net.URL;
 import java.net.UnknownHostException;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 /**
  * An example class designed to make fetching the results of different HTTP
  * operations easier.
  */
 public class HTTPFetcher {
+	private static final Logger log = LogManager.getLogger();
+
 	/** Port used by socket. For web servers, should be port 80. */
 	public static final int DEFAULT_PORT = 80;
 
 	/** Version of HTTP used and supported. */
 	public static final String version = "HTTP/1.1";
 
+	/** Default most bytes of a page read before giving up on it. */
+	public static final long DEFAULT_MAX_BODY = 10L * 1024 * 1024;
+
+	/** Most characters of a page allocated before any of it has arrived. */
+	private static final int MAX_FIRST_BUFFER = 64 * 1024;
+
+	/** Content codings the pool decodes, offered to servers to save bandwidth. */
+	public static final String ACCEPT_ENCODING = "gzip, deflate";
+
 	// See: http://www.w3.org/Protocols/rfc2616/rfc2616-sec5.html#sec5.1.1
 	/** Valid HTTP method types. */
 	public static enum HTTP {
@@ -76,13 +97,56 @@ public class HTTPFetcher {
 	 * @see {@link HTTP}
 	 */
 	public static String craftHTTPRequest(URL url, HTTP type) {
+		return craftHTTPRequest(url, type, false);
+	}
+
+	/**
+	 * Crafts a minimal HTTP/1.1 request for the provided method, asking the
+	 * server to either close the connection or keep it open afterwards.
+	 *
+	 * @param url
+	 *            - url to fetch
+	 * @param type
+	 *            - HTTP method to use
+	 * @param keepAlive
+	 *            - whether the connection will be used for more requests
+	 *
+	 * @return HTTP/1.1 request
+	 *
+	 * @see {@link HTTPConnectionPool}
+	 */
+	public static String craftHTTPRequest(URL url, HTTP type, boolean keepAlive) {
+		return craftHTTPRequest(url, type, keepAlive, Collections.emptyMap());
+	}
+
+	/**
+	 * Crafts a minimal HTTP/1.1 request for the provided method with extra
+	 * header fields, such as the validators of a conditional request.
+	 *
+	 * @param url
+	 *            - url to fetch
+	 * @param type
+	 *            - HTTP method to use
+	 * @param keepAlive
+	 *            - whether the connection will be used for more requests
+	 * @param headers
+	 *            - extra header field names mapped to values
+	 *
+	 * @return HTTP/1.1 request
+	 */
+	public static String craftHTTPRequest(URL url, HTTP type, boolean keepAlive, Map<String, String> headers) {
 		String host = url.getHost();
 		String resource = url.getFile().isEmpty() ? "/" : url.getFile();
 
+		StringBuilder extra = new StringBuilder();
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			extra.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+		}
+
 		// The specification is specific about where to use a new line
 		// versus a carriage return!
-		return String.format("%s %s %s\r\n" + "Host: %s\r\n" + "Connection: close\r\n" + "\r\n", type.name(), resource,
-				version, host);
+		return String.format("%s %s %s\r\n" + "Host: %s\r\n" + "Connection: %s\r\n" + "%s" + "\r\n",
+				type.name(), resource, version, host, keepAlive ? "keep-alive" : "close", extra);
 	}
 
 	/**
@@ -158,6 +222,164 @@ public class HTTPFetcher {
 		return null;
 	}
 
+	/**
+	 * Fetches the HTML for the specified URL over a pooled connection, reading
+	 * the body straight off the connection into a single buffer of characters
+	 * instead of a list of lines. Gives up without reading any of the body if
+	 * the headers say it is not HTML or is too large. Offers to take the page
+	 * compressed, which the pool decodes as it is read.
+	 *
+	 * @param url
+	 *            - url to fetch
+	 * @param pool
+	 *            - connections to reuse
+	 * @param maxBody
+	 *            - most bytes of HTML to read before giving up
+	 * @return HTML, or null if not HTML
+	 *
+	 * @throws IOException
+	 *             if the request fails or the HTML is too large
+	 */
+	public static CharSequence fetchHTML(URL url, HTTPConnectionPool pool, long maxBody) throws IOException {
+		return pool.fetch(url, HTTP.GET, Collections.singletonMap("Accept-Encoding", ACCEPT_ENCODING), maxBody,
+				(response, body) -> readHTML(response, body, maxBody));
+	}
+
+	/**
+	 * Fetches the HTML for the specified URL the same way as
+	 * {@link #fetchHTML(URL, HTTPConnectionPool, long)}, asking the server to
+	 * only send it if it changed since it was last stored. The stored copy is
+	 * returned if the server answers 304 Not Modified, and replaced by the new
+	 * one otherwise. A store that cannot be read or written is logged and
+	 * otherwise ignored, so the page is still returned.
+	 *
+	 * @param url
+	 *            - url to fetch
+	 * @param pool
+	 *            - connections to reuse
+	 * @param store
+	 *            - pages fetched before, with their validators
+	 * @param maxBody
+	 *            - most bytes of HTML to read before giving up
+	 * @return HTML, or null if not HTML
+	 *
+	 * @throws IOException
+	 *             if the request fails or the HTML is too large
+	 */
+	public static CharSequence fetchHTML(URL url, HTTPConnectionPool pool, PageStore store, long maxBody)
+			throws IOException {
+		PageStore.Page stored = stored(url, store);
+
+		Map<String, String> conditions = new LinkedHashMap<>();
+		conditions.put("Accept-Encoding", ACCEPT_ENCODING);
+		if (stored != null) {
+			if (stored.getETag() != null) {
+				conditions.put("If-None-Match", stored.getETag());
+			}
+			if (stored.getLastModified() != null) {
+				conditions.put("If-Modified-Since", stored.getLastModified());
+			}
+		}
+
+		return pool.fetch(url, HTTP.GET, conditions, maxBody, (response, body) -> {
+			if (response.getStatus() == 304 && stored != null) {
+				store.hit();
+				return stored.getHTML();
+			}
+
+			CharSequence html = readHTML(response, body, maxBody);
+
+			// only keeps pages that are really there, not error pages
+			try {
+				if (html != null && response.getStatus() == 200) {
+					store.put(new PageStore.Page(url.toString(), response.getHeader("ETag"),
+							response.getHeader("Last-Modified"), html.toString()));
+				} else if (stored != null) {
+					store.remove(url);
+				}
+			} catch (IOException e) {
+				log.debug("Unable to update the stored copy of " + url, e);
+			}
+			return html;
+		});
+	}
+
+	/**
+	 * Returns the stored copy of a page, or null if there is none or it
+	 * cannot be read, in which case the page is fetched as if new.
+	 *
+	 * @param url
+	 *            - url of the page
+	 * @param store
+	 *            - pages fetched before
+	 * @return the stored page, or null
+	 */
+	private static PageStore.Page stored(URL url, PageStore store) {
+		try {
+			return store.get(url);
+		} catch (IOException e) {
+			log.debug("Unable to read the stored copy of " + url, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the body of a response as UTF-8 HTML. Checks the headers first, so
+	 * nothing is read if it is not HTML or is too large.
+	 *
+	 * @param response
+	 *            - status and headers of the response
+	 * @param body
+	 *            - the body as it arrives
+	 * @param maxBody
+	 *            - most bytes of HTML to read
+	 * @return HTML, or null if not HTML
+	 *
+	 * @throws IOException
+	 *             if the body cannot be read or is too large
+	 */
+	private static CharSequence readHTML(HTTPConnectionPool.Response response, InputStream body, long maxBody)
+			throws IOException {
+		// Double-check this is an HTML file.
+		String type = response.getHeader("Content-Type");
+		if (type == null || !type.toLowerCase().contains("html")) {
+			return null;
+		}
+
+		long length = -1;
+		try {
+			length = Long.parseLong(response.getHeader("Content-Length"));
+		} catch (NumberFormatException e) {
+			// chunked or until the connection closes, so unknown
+		}
+
+		if (length > maxBody) {
+			throw new IOException("Page larger than " + maxBody + " bytes.");
+		}
+
+		// UTF-8 never decodes to more characters than there were bytes, but a
+		// server may claim anything, so larger pages grow as they arrive
+		char[] html = new char[length < 0 ? 8192 : (int) Math.max(1, Math.min(length, MAX_FIRST_BUFFER))];
+		int count = 0;
+		int read;
+
+		Reader reader = new InputStreamReader(body, StandardCharsets.UTF_8);
+		while ((read = reader.read(html, count, html.length - count)) >= 0) {
+			count += read;
+			if (count == html.length) {
+				// only grows if there is more, so a page of exactly that length is not copied
+				int next = reader.read();
+				if (next < 0) {
+					break;
+				}
+				html = Arrays.copyOf(html, html.length * 2);
+				html[count++] = (char) next;
+			}
+		}
+
+		return CharBuffer.wrap(html, 0, count);
+	}
+
 	/**
 	 * Helper method that parses HTTP headers into a map where the key is the
 	 * field name and the value is the field value. The status code will be
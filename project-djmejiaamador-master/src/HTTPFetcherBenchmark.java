@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+/**
+ * Compares fetching pages with a new connection per page against fetching them
+ * over pooled keep-alive connections. Starts a local Jetty server that serves
+ * any number of small generated pages, all from the same host like most links
+ * found while crawling, and fetches every page once each way on a work queue.
+ *
+ * Usage: java HTTPFetcherBenchmark [pages] [threads] [port]
+ */
+public class HTTPFetcherBenchmark {
+
+	/**
+	 * Serves a small page for any path, linking to the next page.
+	 */
+	@SuppressWarnings("serial")
+	private static class PageServlet extends HttpServlet {
+
+		@Override
+		protected void doGet(HttpServletRequest request, HttpServletResponse response)
+				throws ServletException, IOException {
+			response.setContentType("text/html");
+			response.setStatus(HttpServletResponse.SC_OK);
+
+			PrintWriter out = response.getWriter();
+			out.printf("<html><head><title>%s</title></head><body>%n", request.getRequestURI());
+			for (int i = 0; i < 20; i++) {
+				out.printf("<p>The quick brown fox jumps over the lazy dog, line %d.</p>%n", i);
+			}
+			out.printf("<a href=\"%s/next\">next</a></body></html>%n", request.getRequestURI());
+		}
+	}
+
+	/**
+	 * Fetches every page once, and prints how long it took.
+	 *
+	 * @param port
+	 *            port the server listens on
+	 * @param pages
+	 *            number of pages to fetch
+	 * @param threads
+	 *            number of threads to fetch with
+	 * @param pool
+	 *            connections to reuse, or null to open one per page
+	 * @return time taken in milliseconds
+	 */
+	private static double time(int port, int pages, int threads, HTTPConnectionPool pool) {
+		WorkQueue queue = new WorkQueue(threads);
+		AtomicInteger fetched = new AtomicInteger();
+		AtomicInteger failed = new AtomicInteger();
+
+		long begin = System.nanoTime();
+		for (int i = 0; i < pages; i++) {
+			String url = "http://localhost:" + port + "/page/" + i;
+			queue.execute(() -> {
+				try {
+					CharSequence html = pool == null ? HTTPFetcher.fetchHTML(url)
+							: HTTPFetcher.fetchHTML(new URL(url), pool, HTTPFetcher.DEFAULT_MAX_BODY);
+					(html == null ? failed : fetched).incrementAndGet();
+				} catch (IOException e) {
+					failed.incrementAndGet();
+				}
+			});
+		}
+		queue.finish();
+		double elapsed = (System.nanoTime() - begin) / 1e6;
+		queue.shutdown();
+
+		System.out.printf("%-12s %10.1f ms, %8.0f pages/s, %d fetched, %d failed%s%n",
+				pool == null ? "per page" : "pooled", elapsed, fetched.get() / elapsed * 1000, fetched.get(),
+				failed.get(), pool == null ? "" : ", " + pool);
+		return elapsed;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int pages = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : WorkQueue.DEFAULT;
+		int port = args.length > 2 ? Integer.parseInt(args[2]) : 8081;
+
+		Server server = new Server(port);
+		ServletHandler handler = new ServletHandler();
+		handler.addServletWithMapping(new ServletHolder(new PageServlet()), "/*");
+		server.setHandler(handler);
+		server.start();
+
+		try {
+			System.out.printf("%d pages, %d threads%n", pages, threads);
+
+			// warm up both ways first
+			time(port, pages / 10, threads, null);
+			try (HTTPConnectionPool pool = new HTTPConnectionPool(threads, HTTPConnectionPool.DEFAULT_IDLE_TIMEOUT)) {
+				time(port, pages / 10, threads, pool);
+			}
+
+			double fresh = time(port, pages, threads, null);
+			try (HTTPConnectionPool pool = new HTTPConnectionPool(threads, HTTPConnectionPool.DEFAULT_IDLE_TIMEOUT)) {
+				double pooled = time(port, pages, threads, pool);
+				System.out.printf("speedup %.2fx%n", fresh / pooled);
+			}
+		} finally {
+			server.stop();
+		}
+	}
+}
@@ -0,0 +1,141 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Builds an index from a saved one, only reading the files that are new or
+ * changed since it was saved. Compares every file against the
+ * {@link IndexManifest} stored next to the saved index, keeps the postings of
+ * unchanged files, removes those of changed and deleted files, and hands the
+ * new and changed files to another builder. Falls back to building the whole
+ * index if there is no saved index or manifest to start from.
+ */
+public class IncrementalIndexBuilder implements IndexBuilderInterface {
+
+	private static final Logger log = LogManager.getLogger();
+	private final InvertedIndexInterface index;
+	private final IndexBuilderInterface builder;
+	private final Path snapshot;
+
+	/** State of every file handed to the last build. */
+	private IndexManifest manifest;
+
+	private int unchanged;
+	private int changed;
+	private int added;
+	private int removed;
+
+	/**
+	 * Initializes an incremental builder.
+	 *
+	 * @param index
+	 *            index to add words to, expected to be empty
+	 * @param builder
+	 *            builder that adds the new and changed files to the index
+	 * @param snapshot
+	 *            where the index is saved by
+	 *            {@link MappedInvertedIndex#write(InvertedIndexInterface, Path)}
+	 */
+	public IncrementalIndexBuilder(InvertedIndexInterface index, IndexBuilderInterface builder, Path snapshot) {
+		this.index = index;
+		this.builder = builder;
+		this.snapshot = snapshot;
+		this.manifest = new IndexManifest();
+	}
+
+	@Override
+	public void buildIndex(ArrayList<Path> paths) throws IOException {
+		IndexManifest previous = readPrevious();
+		IndexManifest current = new IndexManifest();
+		ArrayList<Path> reindex = new ArrayList<>();
+		HashSet<String> stale = new HashSet<>(previous.paths());
+		unchanged = changed = added = 0;
+
+		for (Path path : paths) {
+			String location = path.toString();
+			IndexManifest.Entry before = previous.get(location);
+			IndexManifest.Entry now = IndexManifest.Entry.of(path, before);
+			current.put(location, now);
+
+			// touched files whose contents did not change keep their postings
+			if (now.sameContents(before)) {
+				stale.remove(location);
+				unchanged++;
+			} else {
+				reindex.add(path);
+				if (before == null) {
+					added++;
+				} else {
+					changed++;
+				}
+			}
+		}
+
+		removed = stale.size() - changed;
+
+		if (unchanged > 0) {
+			InvertedIndex kept = load();
+			kept.removeDocuments(stale);
+			index.addAll(kept);
+		}
+
+		builder.buildIndex(reindex);
+		manifest = current;
+		log.info(toString());
+	}
+
+	/**
+	 * Reads the manifest of the saved index.
+	 *
+	 * @return the manifest, or an empty one if there is nothing to start from
+	 */
+	private IndexManifest readPrevious() {
+		Path location = IndexManifest.location(snapshot);
+		if (!Files.isRegularFile(snapshot) || !Files.isRegularFile(location)) {
+			return new IndexManifest();
+		}
+
+		try {
+			return IndexManifest.read(location);
+		} catch (IOException e) {
+			log.debug(e.getMessage(), e);
+			return new IndexManifest();
+		}
+	}
+
+	/**
+	 * Copies the saved index into one that documents can be removed from.
+	 *
+	 * @return copy of the saved index
+	 * @throws IOException
+	 */
+	private InvertedIndex load() throws IOException {
+		return new MappedInvertedIndex(snapshot).copy();
+	}
+
+	/**
+	 * Saves the index along with the manifest of the last build. The old
+	 * manifest is deleted first, so that if saving fails part way the next
+	 * build starts from scratch instead of trusting a manifest that does not
+	 * match the saved index.
+	 *
+	 * @throws IOException
+	 */
+	public void save() throws IOException {
+		Path location = IndexManifest.location(snapshot);
+		Files.deleteIfExists(location);
+		MappedInvertedIndex.write(index, snapshot);
+		manifest.write(location);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d unchanged, %d changed, %d added, %d removed files", unchanged, changed, added,
+				removed);
+	}
+}
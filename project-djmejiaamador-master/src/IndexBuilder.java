@@ -1,15 +1,35 @@
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 
 public class IndexBuilder implements IndexBuilderInterface {
 
-	private final InvertedIndex index;
+	/** Default size in bytes of the buffer files are read through. */
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
 
-	public IndexBuilder(InvertedIndex index) {
+	private final InvertedIndexInterface index;
+	private final int bufferSize;
+	private final boolean mapped;
+
+	public IndexBuilder(InvertedIndexInterface index) {
+		this(index, DEFAULT_BUFFER_SIZE, false);
+	}
+
+	/**
+	 * Initializes a builder that reads files through a buffer of the given
+	 * size, or by mapping them into memory.
+	 *
+	 * @param index
+	 *            index to add words to
+	 * @param bufferSize
+	 *            size in bytes of the buffer files are read through
+	 * @param mapped
+	 *            whether to map files into memory instead of reading them
+	 */
+	public IndexBuilder(InvertedIndexInterface index, int bufferSize, boolean mapped) {
 		this.index = index;
+		this.bufferSize = bufferSize;
+		this.mapped = mapped;
 	}
 
 	/**
@@ -26,28 +46,59 @@ public class IndexBuilder implements IndexBuilderInterface {
 	@Override
 	public void buildIndex(ArrayList<Path> paths) throws IOException {
 		for (Path file : paths) {
-			buildIndex(file, index);
+			buildIndex(file, index, bufferSize, mapped);
 		}
 	}
 
 	/**
 	 * Reads a file, strips all HTML and parses words then adds words and paths
-	 * and # of occurrences to inverted index
+	 * and # of occurrences to inverted index. Reads through a buffer of the
+	 * default size.
 	 *
-	 * @param paths:
-	 *            files to read.
+	 * @param path
+	 *            file to read.
 	 * @param index
 	 *            The Inverted Index data structure to which words will be
 	 *            added.
 	 * @throws IOException
 	 */
-	public static void buildIndex(Path path, InvertedIndex index) throws IOException {
-		int counter = 1;
-		byte[] buffer;
-		buffer = Files.readAllBytes(path);
-		String whole = new String(buffer, StandardCharsets.UTF_8);
-		whole = HTMLCleaner.stripHTML(whole);
-		String[] textArray = WordParser.parseWords(whole);
-		index.addAll(textArray, path.toString(), counter);
+	public static void buildIndex(Path path, InvertedIndexInterface index) throws IOException {
+		buildIndex(path, index, DEFAULT_BUFFER_SIZE, false);
+	}
+
+	/**
+	 * Reads a file, strips all HTML and parses words then adds words and paths
+	 * and # of occurrences to inverted index. The file is decoded one chunk at
+	 * a time and words are handed to the index as they are found by
+	 * {@link HTMLTokenizer}, so the whole file is never held in memory. Words
+	 * only go through a local index first if the given index is not a plain
+	 * {@link InvertedIndex}, so that shared indexes are still updated once per
+	 * file.
+	 *
+	 * @param path
+	 *            file to read.
+	 * @param index
+	 *            The Inverted Index data structure to which words will be
+	 *            added.
+	 * @param bufferSize
+	 *            size in bytes of the buffer the file is read through
+	 * @param mapped
+	 *            whether to map the file into memory instead of reading it
+	 * @throws IOException
+	 */
+	public static void buildIndex(Path path, InvertedIndexInterface index, int bufferSize, boolean mapped)
+			throws IOException {
+		String location = path.toString();
+
+		try (ChunkedFileReader reader = new ChunkedFileReader(path, bufferSize, mapped)) {
+			if (index.getClass() == InvertedIndex.class) {
+				InvertedIndex plain = (InvertedIndex) index;
+				HTMLTokenizer.tokenize(reader, (word, position) -> plain.add(word, location, position));
+			} else {
+				InvertedIndex local = new InvertedIndex();
+				HTMLTokenizer.tokenize(reader, (word, position) -> local.add(word, location, position));
+				index.addAll(local);
+			}
+		}
 	}
-}
\ No newline at end of file
+}
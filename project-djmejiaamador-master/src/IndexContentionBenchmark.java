@@ -0,0 +1,115 @@
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+/**
+ * Measures how well the thread safe inverted indexes hold up when many
+ * threads add to and search them at once. Each run starts the given number of
+ * threads, each of which adds a fixed number of synthetic documents and runs a
+ * search after every document. Reports the total time and the number of words
+ * added per second, for 1 to 64 threads.
+ *
+ * Usage: java IndexContentionBenchmark [documents per thread] [words per
+ * document]
+ */
+public class IndexContentionBenchmark {
+
+	/** Thread counts to benchmark. */
+	private static final int[] THREADS = { 1, 2, 4, 8, 16, 32, 64 };
+
+	/** Number of distinct words to draw from. */
+	private static final int VOCABULARY = 20000;
+
+	/**
+	 * Runs one benchmark and returns the elapsed time.
+	 *
+	 * @param index
+	 *            index to add to and search
+	 * @param threads
+	 *            number of threads to use
+	 * @param documents
+	 *            documents added by each thread
+	 * @param words
+	 *            words in each document
+	 * @return elapsed time in nanoseconds
+	 * @throws InterruptedException
+	 */
+	private static long run(InvertedIndexInterface index, int threads, int documents, int words)
+			throws InterruptedException {
+
+		CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+
+		for (int t = 0; t < threads; t++) {
+			final int id = t;
+			workers[t] = new Thread(() -> {
+				Random random = new Random(id);
+				String[] text = new String[words];
+				String[] query = new String[1];
+
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+
+				for (int d = 0; d < documents; d++) {
+					for (int w = 0; w < words; w++) {
+						// skewed so that a few words are very common, like real text
+						int rank = (int) (VOCABULARY * Math.pow(random.nextDouble(), 3));
+						text[w] = "w" + rank;
+					}
+
+					index.addAll(text, "thread" + id + "/doc" + d + ".html", 1);
+
+					query[0] = text[0];
+					index.exactSearch(query);
+				}
+			});
+			workers[t].start();
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		return System.nanoTime() - begin;
+	}
+
+	/**
+	 * Benchmarks one kind of index across all thread counts.
+	 *
+	 * @param name
+	 *            name to print
+	 * @param factory
+	 *            creates a new empty index
+	 * @param documents
+	 *            documents added by each thread
+	 * @param words
+	 *            words in each document
+	 * @throws InterruptedException
+	 */
+	private static void benchmark(String name, Supplier<InvertedIndexInterface> factory, int documents, int words)
+			throws InterruptedException {
+
+		// warm up before measuring anything
+		run(factory.get(), 4, documents, words);
+
+		for (int threads : THREADS) {
+			long elapsed = run(factory.get(), threads, documents, words);
+			double seconds = elapsed / 1e9;
+			double rate = (double) threads * documents * words / seconds;
+			System.out.printf("%-25s %3d threads: %8.3f s, %,14.0f words/s%n", name, threads, seconds, rate);
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int documents = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int words = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+		benchmark("ThreadSafeInvertedIndex", ThreadSafeInvertedIndex::new, documents, words);
+		benchmark("ConcurrentInvertedIndex", ConcurrentInvertedIndex::new, documents, words);
+	}
+}
@@ -0,0 +1,240 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Records the size, last modified time and content hash of every file that
+ * went into a saved index, so that a later run can tell which files are new,
+ * changed or deleted without indexing them again. Stored next to the saved
+ * index as a text file with one tab separated line per file.
+ *
+ * @see IncrementalIndexBuilder
+ */
+public class IndexManifest {
+
+	/** Appended to the name of a saved index to name its manifest. */
+	public static final String EXTENSION = ".manifest";
+
+	/** Algorithm used to hash file contents. */
+	private static final String ALGORITHM = "SHA-256";
+
+	/** Maps each path to what was recorded about it. */
+	private final TreeMap<String, Entry> entries;
+
+	public IndexManifest() {
+		entries = new TreeMap<>();
+	}
+
+	/**
+	 * Returns where the manifest of a saved index is stored.
+	 *
+	 * @param snapshot
+	 *            path of the saved index
+	 * @return path of its manifest
+	 */
+	public static Path location(Path snapshot) {
+		return snapshot.resolveSibling(snapshot.getFileName() + EXTENSION);
+	}
+
+	/**
+	 * Reads a manifest written by {@link #write(Path)}.
+	 *
+	 * @param path
+	 *            file to read
+	 * @return the manifest
+	 * @throws IOException
+	 *             if the file cannot be read or is not a manifest
+	 */
+	public static IndexManifest read(Path path) throws IOException {
+		IndexManifest manifest = new IndexManifest();
+
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				// the path goes last since it is the only field that may hold a tab
+				String[] fields = line.split("\t", 4);
+				if (fields.length != 4) {
+					throw new IOException("Malformed manifest line: " + line);
+				}
+
+				try {
+					manifest.put(fields[3], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2]));
+				} catch (NumberFormatException e) {
+					throw new IOException("Malformed manifest line: " + line, e);
+				}
+			}
+		}
+
+		return manifest;
+	}
+
+	/**
+	 * Writes the manifest as text.
+	 *
+	 * @param path
+	 *            file to write
+	 * @throws IOException
+	 */
+	public void write(Path path) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			for (java.util.Map.Entry<String, Entry> entry : entries.entrySet()) {
+				Entry value = entry.getValue();
+				writer.write(value.size + "\t" + value.modified + "\t" + value.hash + "\t" + entry.getKey());
+				writer.newLine();
+			}
+		}
+	}
+
+	/**
+	 * Returns what was recorded about a file.
+	 *
+	 * @param path
+	 *            path of the file as stored in the index
+	 * @return the entry, or null if the file is not in the manifest
+	 */
+	public Entry get(String path) {
+		return entries.get(path);
+	}
+
+	/**
+	 * Records a file.
+	 *
+	 * @param path
+	 *            path of the file as stored in the index
+	 * @param entry
+	 *            what to record about it
+	 */
+	public void put(String path, Entry entry) {
+		entries.put(path, entry);
+	}
+
+	/**
+	 * Forgets a file.
+	 *
+	 * @param path
+	 *            path of the file as stored in the index
+	 */
+	public void remove(String path) {
+		entries.remove(path);
+	}
+
+	/**
+	 * Returns every recorded path.
+	 *
+	 * @return unmodifiable view of the paths in sorted order
+	 */
+	public Set<String> paths() {
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+
+	/**
+	 * Returns the number of recorded files.
+	 *
+	 * @return number of files
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	@Override
+	public String toString() {
+		return entries.toString();
+	}
+
+	/**
+	 * The size, last modified time and content hash of one file.
+	 */
+	public static class Entry {
+
+		private final long size;
+		private final long modified;
+		private final String hash;
+
+		public Entry(long size, long modified, String hash) {
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
+
+		/**
+		 * Records the current state of a file. The contents are only hashed
+		 * when the size or last modified time differ from what was recorded
+		 * before, so unchanged files are never read.
+		 *
+		 * @param file
+		 *            file to look at
+		 * @param previous
+		 *            what was recorded about the file before, or null
+		 * @return the current state of the file
+		 * @throws IOException
+		 */
+		public static Entry of(Path file, Entry previous) throws IOException {
+			long size = Files.size(file);
+			long modified = Files.getLastModifiedTime(file).toMillis();
+
+			if (previous != null && previous.size == size && previous.modified == modified) {
+				return previous;
+			}
+
+			return new Entry(size, modified, hash(file));
+		}
+
+		/**
+		 * Hashes the contents of a file.
+		 *
+		 * @param file
+		 *            file to hash
+		 * @return the hash in hexadecimal
+		 * @throws IOException
+		 */
+		public static String hash(Path file) throws IOException {
+			MessageDigest digest;
+			try {
+				digest = MessageDigest.getInstance(ALGORITHM);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(ALGORITHM + " is not available.", e);
+			}
+
+			byte[] buffer = new byte[IndexBuilder.DEFAULT_BUFFER_SIZE];
+			try (InputStream in = Files.newInputStream(file)) {
+				int read;
+				while ((read = in.read(buffer)) >= 0) {
+					digest.update(buffer, 0, read);
+				}
+			}
+
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest.digest()) {
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+				hex.append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		}
+
+		/**
+		 * Checks whether the contents of a file are the same as recorded
+		 * before, even if it was touched since.
+		 *
+		 * @param other
+		 *            what was recorded before, or null
+		 * @return true if the contents hash the same
+		 */
+		public boolean sameContents(Entry other) {
+			return other != null && size == other.size && hash.equals(other.hash);
+		}
+
+		@Override
+		public String toString() {
+			return size + " bytes, modified " + modified + ", " + hash;
+		}
+	}
+}
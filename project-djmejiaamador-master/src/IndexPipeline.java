@@ -0,0 +1,593 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Builds an index from a directory as a pipeline of four stages connected by
+ * bounded queues: walking the directory, reading files, tokenizing them into
+ * small local indexes, and merging those into the shared index. Indexing
+ * starts as soon as the first file is found, instead of after the whole tree
+ * has been walked, and the list of every path is never held in memory.
+ *
+ * Every stage runs on its own work queue with its own number of threads. A
+ * full queue blocks the stage feeding it, so a slow stage holds back the
+ * stages before it instead of letting work pile up in memory. Each stage keeps
+ * {@link Counters} of how many items it processed, how long it was busy, and
+ * how deep its input queue got, which are logged when the pipeline finishes
+ * and show which stage is the bottleneck.
+ */
+public class IndexPipeline {
+
+	private static final Logger log = LogManager.getLogger();
+
+	/** Default number of items each queue between stages holds. */
+	public static final int DEFAULT_QUEUE_SIZE = 64;
+
+	/**
+	 * Largest file in bytes the read stage loads into memory. Larger files are
+	 * streamed by the tokenize stage instead.
+	 */
+	public static final long MAX_READ_SIZE = 1 << 20;
+
+	/** Marks the end of the paths. */
+	private static final Path NO_PATH = Paths.get("");
+
+	/** Marks the end of the documents. */
+	private static final Document NO_DOCUMENT = new Document(NO_PATH, null);
+
+	/** Marks the end of the local indexes. */
+	private static final InvertedIndex NO_INDEX = new InvertedIndex();
+
+	private final InvertedIndexInterface index;
+	private final int walkThreads;
+	private final int readThreads;
+	private final int tokenizeThreads;
+	private final int mergeThreads;
+	private final int queueSize;
+	private final int bufferSize;
+	private final boolean mapped;
+
+	/** Counters of the last run, one per stage. */
+	private volatile List<Counters> counters;
+
+	/**
+	 * Initializes a pipeline with the default queue and buffer sizes.
+	 *
+	 * @param index
+	 *            index to build, which must be thread safe if there is more
+	 *            than one merge thread
+	 * @param readThreads
+	 *            number of threads reading files
+	 * @param tokenizeThreads
+	 *            number of threads tokenizing files
+	 * @param mergeThreads
+	 *            number of threads adding to the index
+	 */
+	public IndexPipeline(InvertedIndexInterface index, int readThreads, int tokenizeThreads, int mergeThreads) {
+		this(index, 1, readThreads, tokenizeThreads, mergeThreads, DEFAULT_QUEUE_SIZE,
+				IndexBuilder.DEFAULT_BUFFER_SIZE, false);
+	}
+
+	/**
+	 * Initializes a pipeline.
+	 *
+	 * @param index
+	 *            index to build, which must be thread safe if there is more
+	 *            than one merge thread
+	 * @param walkThreads
+	 *            number of threads walking the directory in parallel
+	 * @param readThreads
+	 *            number of threads reading files
+	 * @param tokenizeThreads
+	 *            number of threads tokenizing files
+	 * @param mergeThreads
+	 *            number of threads adding to the index
+	 * @param queueSize
+	 *            number of items each queue between stages holds
+	 * @param bufferSize
+	 *            size in bytes of the buffer large files are streamed through
+	 * @param mapped
+	 *            whether to map large files into memory instead of reading them
+	 */
+	public IndexPipeline(InvertedIndexInterface index, int walkThreads, int readThreads, int tokenizeThreads,
+			int mergeThreads, int queueSize, int bufferSize, boolean mapped) {
+		this.index = index;
+		this.walkThreads = walkThreads;
+		this.readThreads = readThreads;
+		this.tokenizeThreads = tokenizeThreads;
+		this.mergeThreads = mergeThreads;
+		this.queueSize = queueSize;
+		this.bufferSize = bufferSize;
+		this.mapped = mapped;
+		this.counters = Collections.emptyList();
+	}
+
+	/**
+	 * Returns the counters of every stage of the last or current build, in
+	 * pipeline order.
+	 *
+	 * @return counters of each stage
+	 */
+	public List<Counters> getCounters() {
+		return counters;
+	}
+
+	/**
+	 * Walks a directory and adds every HTML file found to the index, returning
+	 * once everything has been merged into the index.
+	 *
+	 * @param root
+	 *            directory or file to index
+	 * @throws IOException
+	 *             if the directory could not be walked
+	 */
+	public void build(Path root) throws IOException {
+		long start = System.nanoTime();
+		BlockingQueue<Path> paths = new ArrayBlockingQueue<>(queueSize);
+		BlockingQueue<Document> documents = new ArrayBlockingQueue<>(queueSize);
+		BlockingQueue<InvertedIndex> locals = new ArrayBlockingQueue<>(queueSize);
+
+		Counters walk = new Counters("walk", walkThreads, null, start);
+		Counters read = new Counters("read", readThreads, paths, start);
+		Counters tokenize = new Counters("tokenize", tokenizeThreads, documents, start);
+		Counters merge = new Counters("merge", mergeThreads, locals, start);
+		counters = Collections.unmodifiableList(Arrays.asList(walk, read, tokenize, merge));
+
+		AtomicReference<Exception> failure = new AtomicReference<>();
+		ArrayList<WorkQueue> queues = new ArrayList<>();
+
+		WorkQueue walkers = new WorkQueue(1);
+		walkers.execute(new WalkMinion(root, paths, walk, read, failure));
+		queues.add(walkers);
+
+		Stage<Path, Document> reader = new Stage<Path, Document>(read, paths, NO_PATH, documents, NO_DOCUMENT,
+				tokenize, failure) {
+			@Override
+			protected Document process(Path path) throws IOException {
+				if (Files.size(path) > MAX_READ_SIZE) {
+					return new Document(path, null);
+				}
+				return new Document(path, new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+			}
+		};
+		queues.add(start(reader));
+
+		Stage<Document, InvertedIndex> tokenizer = new Stage<Document, InvertedIndex>(tokenize, documents,
+				NO_DOCUMENT, locals, NO_INDEX, merge, failure) {
+			@Override
+			protected InvertedIndex process(Document document) throws IOException {
+				InvertedIndex local = new InvertedIndex();
+				if (document.text == null) {
+					IndexBuilder.buildIndex(document.path, local, bufferSize, mapped);
+				} else {
+					String location = document.path.toString();
+					HTMLTokenizer.tokenize(document.text, (word, position) -> local.add(word, location, position));
+				}
+				return local;
+			}
+		};
+		queues.add(start(tokenizer));
+
+		Stage<InvertedIndex, InvertedIndex> merger = new Stage<InvertedIndex, InvertedIndex>(merge, locals, NO_INDEX,
+				null, null, null, failure) {
+			@Override
+			protected InvertedIndex process(InvertedIndex local) {
+				index.addAll(local);
+				return null;
+			}
+		};
+		queues.add(start(merger));
+
+		for (WorkQueue queue : queues) {
+			queue.finish();
+			queue.shutdown();
+		}
+
+		for (Counters stage : counters) {
+			log.info(stage.toString());
+		}
+
+		Exception exception = failure.get();
+		if (exception instanceof IOException) {
+			throw (IOException) exception;
+		} else if (exception != null) {
+			throw (RuntimeException) exception;
+		}
+	}
+
+	/**
+	 * Starts every thread of a stage on its own work queue.
+	 *
+	 * @param stage
+	 *            stage to start
+	 * @return work queue the stage runs on
+	 */
+	private static WorkQueue start(Stage<?, ?> stage) {
+		WorkQueue queue = new WorkQueue(stage.counters.threads);
+		for (int i = 0; i < stage.counters.threads; i++) {
+			queue.execute(stage);
+		}
+		return queue;
+	}
+
+	/**
+	 * Puts an item on a queue, waiting for room if the queue is full, and
+	 * tracks how deep the queue gets.
+	 *
+	 * @param queue
+	 *            queue to put the item on
+	 * @param item
+	 *            item to put
+	 * @param next
+	 *            counters of the stage reading from the queue
+	 * @return time in nanoseconds spent waiting for room
+	 * @throws InterruptedException
+	 */
+	private static <T> long send(BlockingQueue<T> queue, T item, Counters next) throws InterruptedException {
+		long start = System.nanoTime();
+		queue.put(item);
+		long blocked = System.nanoTime() - start;
+		next.updatePeak(queue.size());
+		return blocked;
+	}
+
+	/**
+	 * A file on its way through the pipeline.
+	 */
+	private static class Document {
+
+		private final Path path;
+
+		/** Text of the file, or null if it is too large and must be streamed. */
+		private final String text;
+
+		public Document(Path path, String text) {
+			this.path = path;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * Minion class takes care of walking the directory and putting every HTML
+	 * file found on the path queue, then marking the end of the paths for
+	 * every read thread. Walks with fork/join tasks if the walk stage has more
+	 * than one thread.
+	 */
+	private static class WalkMinion implements Runnable {
+
+		private final Path root;
+		private final BlockingQueue<Path> paths;
+		private final Counters counters;
+		private final Counters next;
+		private final AtomicReference<Exception> failure;
+
+		public WalkMinion(Path root, BlockingQueue<Path> paths, Counters counters, Counters next,
+				AtomicReference<Exception> failure) {
+			this.root = root;
+			this.paths = paths;
+			this.counters = counters;
+			this.next = next;
+			this.failure = failure;
+		}
+
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			AtomicLong blocked = new AtomicLong();
+
+			Consumer<Path> consumer = path -> {
+				try {
+					blocked.addAndGet(send(paths, path, next));
+					counters.count();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			};
+
+			try {
+				if (counters.threads > 1) {
+					HTMLTraverser.traverse(root, consumer, counters.threads);
+				} else {
+					HTMLTraverser.traverse(root, consumer);
+				}
+			} catch (IOException | RuntimeException e) {
+				log.debug(e.getMessage(), e);
+				failure.compareAndSet(null, e);
+			} finally {
+				// walking threads are busy whenever they are not waiting on the queue
+				long elapsed = System.nanoTime() - start;
+				counters.addBusy(Math.max(0, elapsed * counters.threads - blocked.get()));
+				counters.finish();
+				end(paths, NO_PATH, next);
+			}
+		}
+	}
+
+	/**
+	 * Marks the end of a queue once for every thread reading from it.
+	 *
+	 * @param queue
+	 *            queue to mark the end of
+	 * @param end
+	 *            item marking the end
+	 * @param next
+	 *            counters of the stage reading from the queue
+	 */
+	private static <T> void end(BlockingQueue<T> queue, T end, Counters next) {
+		try {
+			for (int i = 0; i < next.threads; i++) {
+				queue.put(end);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * One stage of the pipeline. Every thread of the stage runs the same
+	 * instance, taking items off the input queue and putting the results on
+	 * the output queue until it takes the item marking the end. The last
+	 * thread to finish marks the end of the output queue for the next stage.
+	 *
+	 * @param <I>
+	 *            type of items taken from the input queue
+	 * @param <O>
+	 *            type of items put on the output queue
+	 */
+	private abstract static class Stage<I, O> implements Runnable {
+
+		private final Counters counters;
+		private final BlockingQueue<I> input;
+		private final I end;
+		private final BlockingQueue<O> output;
+		private final O outputEnd;
+		private final Counters next;
+		private final AtomicReference<Exception> failure;
+		private final AtomicInteger running;
+
+		public Stage(Counters counters, BlockingQueue<I> input, I end, BlockingQueue<O> output, O outputEnd,
+				Counters next, AtomicReference<Exception> failure) {
+			this.counters = counters;
+			this.input = input;
+			this.end = end;
+			this.output = output;
+			this.outputEnd = outputEnd;
+			this.next = next;
+			this.failure = failure;
+			this.running = new AtomicInteger(counters.threads);
+		}
+
+		/**
+		 * Processes one item.
+		 *
+		 * @param item
+		 *            item to process
+		 * @return result to pass to the next stage, or null if none
+		 * @throws IOException
+		 */
+		protected abstract O process(I item) throws IOException;
+
+		@Override
+		public void run() {
+			try {
+				I item;
+				while ((item = input.take()) != end) {
+					long start = System.nanoTime();
+					O result = null;
+
+					try {
+						result = process(item);
+					} catch (IOException e) {
+						log.debug(e.getMessage(), e);
+					} catch (RuntimeException e) {
+						log.debug(e.getMessage(), e);
+						failure.compareAndSet(null, e);
+					}
+
+					counters.record(System.nanoTime() - start);
+					if (result != null) {
+						send(output, result, next);
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				if (running.decrementAndGet() == 0) {
+					counters.finish();
+					if (output != null) {
+						end(output, outputEnd, next);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts how much work one stage of the pipeline has done.
+	 */
+	public static class Counters {
+
+		private final String name;
+		private final int threads;
+		private final BlockingQueue<?> queue;
+		private final long started;
+
+		private final AtomicLong processed;
+		private final AtomicLong busy;
+		private final AtomicInteger peak;
+		private volatile long finished;
+
+		/**
+		 * Initializes the counters of a stage.
+		 *
+		 * @param name
+		 *            name of the stage
+		 * @param threads
+		 *            number of threads of the stage
+		 * @param queue
+		 *            input queue of the stage, or null if none
+		 * @param started
+		 *            when the pipeline started, from {@link System#nanoTime()}
+		 */
+		public Counters(String name, int threads, BlockingQueue<?> queue, long started) {
+			this.name = name;
+			this.threads = threads;
+			this.queue = queue;
+			this.started = started;
+			this.processed = new AtomicLong();
+			this.busy = new AtomicLong();
+			this.peak = new AtomicInteger();
+			this.finished = 0;
+		}
+
+		/**
+		 * Records one processed item.
+		 *
+		 * @param nanos
+		 *            time spent processing it
+		 */
+		private void record(long nanos) {
+			count();
+			addBusy(nanos);
+		}
+
+		/**
+		 * Records one processed item without its time.
+		 */
+		private void count() {
+			processed.incrementAndGet();
+		}
+
+		/**
+		 * Records time spent processing items.
+		 *
+		 * @param nanos
+		 *            time spent
+		 */
+		private void addBusy(long nanos) {
+			busy.addAndGet(nanos);
+		}
+
+		/**
+		 * Records how deep the input queue is after an item was put on it.
+		 *
+		 * @param depth
+		 *            current depth
+		 */
+		private void updatePeak(int depth) {
+			int current;
+			while (depth > (current = peak.get()) && !peak.compareAndSet(current, depth)) {
+				// try again
+			}
+		}
+
+		/**
+		 * Records that every thread of the stage has finished.
+		 */
+		private void finish() {
+			finished = System.nanoTime();
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getThreads() {
+			return threads;
+		}
+
+		/**
+		 * Returns the number of items this stage has processed.
+		 *
+		 * @return number of items
+		 */
+		public long getProcessed() {
+			return processed.get();
+		}
+
+		/**
+		 * Returns the total time the threads of this stage spent processing
+		 * items, not counting time waiting on the queues.
+		 *
+		 * @return busy time in milliseconds
+		 */
+		public double getBusyMillis() {
+			return busy.get() / 1e6;
+		}
+
+		/**
+		 * Returns how long this stage has been running, or ran for if it has
+		 * finished.
+		 *
+		 * @return elapsed time in milliseconds
+		 */
+		public double getElapsedMillis() {
+			long end = finished == 0 ? System.nanoTime() : finished;
+			return (end - started) / 1e6;
+		}
+
+		/**
+		 * Returns the number of items processed per second.
+		 *
+		 * @return throughput in items per second
+		 */
+		public double getThroughput() {
+			double elapsed = getElapsedMillis();
+			return elapsed > 0 ? getProcessed() * 1000 / elapsed : 0;
+		}
+
+		/**
+		 * Returns the fraction of the time its threads have been running that
+		 * this stage was busy processing items. A stage close to 1 with a full
+		 * input queue is the bottleneck.
+		 *
+		 * @return utilization between 0 and 1
+		 */
+		public double getUtilization() {
+			double elapsed = getElapsedMillis();
+			return elapsed > 0 ? Math.min(1, getBusyMillis() / (elapsed * threads)) : 0;
+		}
+
+		/**
+		 * Returns the number of items waiting on the input queue of this
+		 * stage.
+		 *
+		 * @return current queue depth
+		 */
+		public int getQueueDepth() {
+			return queue == null ? 0 : queue.size();
+		}
+
+		/**
+		 * Returns the largest number of items that have been waiting on the
+		 * input queue of this stage at once.
+		 *
+		 * @return peak queue depth
+		 */
+		public int getPeakQueueDepth() {
+			return peak.get();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-8s %2d threads, %7d items, %9.1f items/s, %5.1f%% busy, queue %d (peak %d)", name,
+					threads, getProcessed(), getThroughput(), getUtilization() * 100, getQueueDepth(),
+					getPeakQueueDepth());
+		}
+	}
+}
@@ -0,0 +1,290 @@
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps an index up to date with a directory while it is being searched.
+ * Watches every directory in the tree for files being created, changed or
+ * deleted, and waits for a burst of changes to settle before re-indexing the
+ * HTML files involved. The changed files are parsed into indexes of their own
+ * on the work queue, and then swapped into the index all at once, so searches
+ * are only blocked for one pass over the index per burst, however many files
+ * changed.
+ *
+ * @see InvertedIndex#replaceDocuments(Collection, Collection)
+ */
+public class IndexWatcher implements Runnable {
+
+	private static final Logger log = LogManager.getLogger();
+
+	/** Default time in milliseconds without changes before re-indexing. */
+	public static final int DEFAULT_DEBOUNCE = 500;
+
+	/** Longest a burst of changes is waited on, in multiples of the debounce. */
+	private static final int MAX_DELAY = 10;
+
+	private final Path root;
+	private final ThreadSafeInvertedIndex index;
+	private final WorkQueue queue;
+	private final long debounce;
+	private final int bufferSize;
+	private final boolean mapped;
+
+	private final WatchService watcher;
+
+	/** Maps each watch key to the directory it watches. */
+	private final HashMap<WatchKey, Path> directories;
+
+	/** HTML files currently in the index, to remove if their directory goes. */
+	private final HashSet<Path> files;
+
+	/**
+	 * Starts watching a directory tree. Changes are only applied to the index
+	 * once {@link #run()} is called.
+	 *
+	 * @param root
+	 *            directory the index was built from
+	 * @param index
+	 *            index to keep up to date, which must not be frozen
+	 * @param queue
+	 *            work queue to re-index files on
+	 * @param debounce
+	 *            milliseconds without changes to wait for before re-indexing
+	 * @param bufferSize
+	 *            size in bytes of the buffer each file is read through
+	 * @param mapped
+	 *            whether to map files into memory instead of reading them
+	 * @throws IOException
+	 */
+	public IndexWatcher(Path root, ThreadSafeInvertedIndex index, WorkQueue queue, long debounce, int bufferSize,
+			boolean mapped) throws IOException {
+		this.root = root;
+		this.index = index;
+		this.queue = queue;
+		this.debounce = debounce;
+		this.bufferSize = bufferSize;
+		this.mapped = mapped;
+		this.watcher = root.getFileSystem().newWatchService();
+		this.directories = new HashMap<>();
+		this.files = new HashSet<>();
+
+		register(root, null);
+	}
+
+	/**
+	 * Watches a directory and every directory below it.
+	 *
+	 * @param directory
+	 *            directory to watch
+	 * @param found
+	 *            receives the HTML files found while registering, or null
+	 * @throws IOException
+	 */
+	private void register(Path directory, LinkedHashSet<Path> found) throws IOException {
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attributes) throws IOException {
+				directories.put(path.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), path);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) {
+				if (HTMLTraverser.isHTML(path)) {
+					if (found == null) {
+						files.add(path);
+					} else {
+						found.add(path);
+					}
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Applies changes to the index until {@link #close()} is called.
+	 */
+	@Override
+	public void run() {
+		LinkedHashSet<Path> pending = new LinkedHashSet<>();
+		long first = 0;
+
+		try {
+			while (true) {
+				WatchKey key;
+				if (pending.isEmpty()) {
+					key = watcher.take();
+					first = System.currentTimeMillis();
+				} else {
+					key = watcher.poll(debounce, TimeUnit.MILLISECONDS);
+				}
+
+				// re-index once things settle, or if they never do
+				if (key == null || System.currentTimeMillis() - first > MAX_DELAY * debounce) {
+					update(pending);
+					pending.clear();
+					first = System.currentTimeMillis();
+				}
+
+				if (key != null) {
+					collect(key, pending);
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			log.debug("Stopped watching {}", root);
+		}
+	}
+
+	/**
+	 * Collects the files affected by the events of a watch key.
+	 *
+	 * @param key
+	 *            key with events
+	 * @param pending
+	 *            files to re-index or remove
+	 */
+	private void collect(WatchKey key, LinkedHashSet<Path> pending) {
+		Path directory = directories.get(key);
+
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW) {
+				// events were lost, so check everything
+				log.debug("Watch events overflowed, rescanning {}", root);
+				pending.addAll(files);
+				try {
+					HTMLTraverser.traverse(root, pending::add);
+				} catch (IOException e) {
+					log.debug(e.getMessage(), e);
+				}
+				continue;
+			}
+
+			if (directory == null) {
+				continue;
+			}
+
+			Path path = directory.resolve((Path) event.context());
+
+			if (event.kind() == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+				try {
+					register(path, pending);
+				} catch (IOException e) {
+					log.debug(e.getMessage(), e);
+				}
+			} else if (event.kind() == ENTRY_DELETE && !HTMLTraverser.isHTML(path)) {
+				// might have been a directory holding indexed files
+				for (Path file : files) {
+					if (file.startsWith(path)) {
+						pending.add(file);
+					}
+				}
+			} else if (HTMLTraverser.isHTML(path)) {
+				pending.add(path);
+			}
+		}
+
+		if (!key.reset()) {
+			directories.remove(key);
+		}
+	}
+
+	/**
+	 * Parses the files that still exist on the work queue, then swaps every
+	 * pending file in the index for its new contents, or removes it, under
+	 * one write lock.
+	 *
+	 * @param pending
+	 *            files to re-index or remove
+	 */
+	private void update(LinkedHashSet<Path> pending) {
+		HashSet<String> changed = new HashSet<>();
+		List<InvertedIndex> locals = Collections.synchronizedList(new ArrayList<>());
+		Set<String> failed = Collections.synchronizedSet(new HashSet<>());
+
+		for (Path path : pending) {
+			changed.add(path.toString());
+			if (Files.isRegularFile(path)) {
+				files.add(path);
+				// a dropped file would leave the index out of date for good
+				queue.execute(new ParseMinion(path, locals, failed, bufferSize, mapped), WorkQueue.Rejection.BLOCK);
+			} else {
+				files.remove(path);
+			}
+		}
+		queue.finish();
+
+		// a file that could not be read keeps its old contents
+		changed.removeAll(failed);
+		index.replaceDocuments(changed, locals);
+		log.debug("Updated {} files", changed.size());
+	}
+
+	/**
+	 * Stops watching. The thread running {@link #run()} returns shortly after.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		watcher.close();
+	}
+
+	/**
+	 * Minion class that parses a single changed file into an index of its
+	 * own.
+	 */
+	private static class ParseMinion implements Runnable {
+
+		private Path path;
+		private Collection<InvertedIndex> locals;
+		private Collection<String> failed;
+		private int bufferSize;
+		private boolean mapped;
+
+		public ParseMinion(Path path, Collection<InvertedIndex> locals, Collection<String> failed, int bufferSize,
+				boolean mapped) {
+			this.path = path;
+			this.locals = locals;
+			this.failed = failed;
+			this.bufferSize = bufferSize;
+			this.mapped = mapped;
+		}
+
+		@Override
+		public void run() {
+			try {
+				InvertedIndex local = new InvertedIndex();
+				IndexBuilder.buildIndex(path, local, bufferSize, mapped);
+				locals.add(local);
+			} catch (IOException e) {
+				failed.add(path.toString());
+				log.debug(e.getMessage(), e);
+			}
+		}
+	}
+}
@@ -1,20 +1,99 @@
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
 // TODO Use the @Override annotation
 // TODO Only Javadoc overridden methods if something importance is different
 // TODO Otherwise only Javadoc new methods
 
 public class InvertedIndex implements InvertedIndexInterface {
-	private final TreeMap<String, TreeMap<String, TreeSet<Integer>>> index;
+
+	/** Number of prefixes whose combined postings are cached once frozen. */
+	public static final int PREFIX_CACHE_SIZE = 128;
+
+	/** Fewest words a prefix must match before its postings are cached. */
+	public static final int PREFIX_CACHE_MIN_WORDS = 64;
+
+	/** Maps each word to the id of its posting list. */
+	private final TreeMap<String, Integer> terms;
+
+	/** Posting lists, indexed by word id. */
+	private final ArrayList<PostingList> postings;
+
+	/** Maps each path to its document id. */
+	private final HashMap<String, Integer> documentIds;
+
+	/** Paths, indexed by document id. */
+	private final ArrayList<String> documents;
+
+	/** Whether this index has been made read-only. */
+	private boolean frozen;
+
+	/** Sorted words, only set once frozen. */
+	private TermDictionary dictionary;
+
+	/** Posting lists in the same order as {@link #dictionary}. */
+	private PostingList[] sorted;
+
+	/** Combined postings of recently searched prefixes, once frozen. */
+	private Map<String, PrefixPostings> prefixCache;
 
 	public InvertedIndex() {
-		index = new TreeMap<>();
+		terms = new TreeMap<>();
+		postings = new ArrayList<>();
+		documentIds = new HashMap<>();
+		documents = new ArrayList<>();
+		frozen = false;
+	}
+
+	/**
+	 * Returns the id of a path, assigning the next available id if the path
+	 * has not been seen before.
+	 *
+	 * @param path
+	 *            path of the document
+	 * @return document id
+	 */
+	private int documentId(String path) {
+		Integer id = documentIds.get(path);
+
+		if (id == null) {
+			id = documents.size();
+			documentIds.put(path, id);
+			documents.add(path);
+		}
+
+		return id;
+	}
+
+	/**
+	 * Returns the posting list of a word, creating an empty one if the word has
+	 * not been seen before.
+	 *
+	 * @param word
+	 *            word to look up
+	 * @return posting list of the word
+	 */
+	private PostingList postingList(String word) {
+		Integer id = terms.get(word);
+
+		if (id == null) {
+			id = postings.size();
+			terms.put(word, id);
+			postings.add(new PostingList());
+		}
+
+		return postings.get(id);
 	}
 
 	/**
@@ -22,53 +101,315 @@ public class InvertedIndex implements InvertedIndexInterface {
 	 *
 	 * @param word
 	 *            word to clean and add to index
+	 * @param document
+	 *            id of the document the word was found in
 	 * @param position
 	 *            position word was found
 	 */
-	private void addHelper(String word, String path, int position) {
-
-		if (index.containsKey(word) && index.get(word).containsKey(path)) {
-			index.get(word).get(path).add(position);
-		} else if (index.containsKey(word) && !(index.get(word).containsKey(path))) {
-			index.get(word).put(path, new TreeSet<Integer>());
-		} else {
-			index.put(word, new TreeMap<String, TreeSet<Integer>>());
-			index.get(word).put(path, new TreeSet<Integer>());
-		}
-
-		index.get(word).get(path).add(position);
+	private void addHelper(String word, int document, int position) {
+		postingList(word).add(document, position);
 	}
 
 	
 	@Override
 	public void add(String word, String file, int start) {
-		addHelper(word, file, start++);
+		checkMutable();
+		addHelper(word, documentId(file), start++);
 	}
 
 	
 	@Override
 	public void addAll(String[] words, String file, int start) {
+		checkMutable();
+		int document = documentId(file);
 		for (String word : words) {
-			addHelper(word, file, start++);
+			addHelper(word, document, start++);
 		}
 	}
 
 
 	@Override
 	public void addAll(InvertedIndex other) { 
-		for (String word : other.index.keySet()) { 
-			if (this.index.containsKey(word) == false) {
-				this.index.put(word, other.index.get(word)); 
-			} else { 
-				for(String path : other.index.get(word).keySet()){
-					if(!index.get(word).containsKey(path)){
-						index.get(word).put(path, other.index.get(word).get(path));
-					}else{
-						index.get(word).get(path).addAll(other.index.get(word).get(path));
-					}
+		checkMutable();
+		addAllHelper(other);
+	}
+
+	/**
+	 * Adds all of the words of another index, without checking whether this
+	 * index is mutable.
+	 *
+	 * @param other
+	 *            index to add
+	 */
+	private void addAllHelper(InvertedIndex other) {
+		int[] mapping = new int[other.documents.size()];
+		for (int i = 0; i < mapping.length; i++) {
+			mapping[i] = documentId(other.documents.get(i));
+		}
+
+		for (Map.Entry<String, Integer> entry : other.terms.entrySet()) {
+			postingList(entry.getKey()).addAll(other.postings.get(entry.getValue()), mapping);
+		}
+	}
+
+	/**
+	 * Removes documents and every position found in them from the index.
+	 * Words left without any documents are removed as well. The remaining
+	 * documents are renumbered so their ids stay dense, which takes one pass
+	 * over every posting list no matter how many documents are removed, so
+	 * removing many documents at once is much cheaper than one at a time.
+	 *
+	 * @param paths
+	 *            paths of the documents to remove, ideally a set
+	 * @return number of documents removed
+	 */
+	public int removeDocuments(Collection<String> paths) {
+		checkMutable();
+		return removeHelper(paths);
+	}
+
+	/**
+	 * Replaces everything found in several documents at once, such as a burst
+	 * of changed files. Lets the changed documents be parsed into indexes of
+	 * their own first, so that only the swap itself has to happen here.
+	 * Removes all of them in a single pass over the posting lists, however
+	 * many there are, and then adds the indexes holding their new contents. A
+	 * document whose path is given but that is in none of the indexes is
+	 * simply removed.
+	 *
+	 * @param paths
+	 *            paths of the documents to remove, ideally a set
+	 * @param others
+	 *            indexes to add in their place
+	 * @see #removeDocuments(Collection)
+	 */
+	public void replaceDocuments(Collection<String> paths, Collection<InvertedIndex> others) {
+		checkMutable();
+		removeHelper(paths);
+		for (InvertedIndex other : others) {
+			addAllHelper(other);
+		}
+	}
+
+	/**
+	 * Removes documents, without checking whether this index is mutable.
+	 *
+	 * @param paths
+	 *            paths of the documents to remove
+	 * @return number of documents removed
+	 * @see #removeDocuments(Collection)
+	 */
+	private int removeHelper(Collection<String> paths) {
+		int[] mapping = new int[documents.size()];
+		int removed = 0;
+
+		for (int i = 0; i < mapping.length; i++) {
+			if (paths.contains(documents.get(i))) {
+				mapping[i] = -1;
+				removed++;
+			} else {
+				mapping[i] = i - removed;
+			}
+		}
+
+		if (removed == 0) {
+			return 0;
+		}
+
+		ArrayList<String> previous = new ArrayList<>(documents);
+		documents.clear();
+		documentIds.clear();
+		for (int i = 0; i < mapping.length; i++) {
+			if (mapping[i] >= 0) {
+				documentId(previous.get(i));
+			}
+		}
+
+		// word ids are positions in the list of postings, so renumber them too
+		ArrayList<PostingList> kept = new ArrayList<>(postings.size());
+		Iterator<Map.Entry<String, Integer>> iterator = terms.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, Integer> entry = iterator.next();
+			PostingList list = postings.get(entry.getValue());
+
+			if (list.retain(mapping) == 0) {
+				iterator.remove();
+			} else {
+				entry.setValue(kept.size());
+				kept.add(list);
+			}
+		}
+
+		postings.clear();
+		postings.addAll(kept);
+		return removed;
+	}
+
+	/**
+	 * Merges two indexes into a new one in time linear in the number of words
+	 * and postings, by walking the sorted words of both at once instead of
+	 * looking up every word of one in the other. Both indexes are consumed:
+	 * the merged index reuses their posting lists, so neither may be used
+	 * afterwards.
+	 *
+	 * @param first
+	 *            index whose documents keep their ids
+	 * @param second
+	 *            index whose documents are added after those of the first
+	 * @return the merged index
+	 */
+	public static InvertedIndex merge(InvertedIndex first, InvertedIndex second) {
+		first.checkMutable();
+		second.checkMutable();
+		InvertedIndex merged = new InvertedIndex();
+
+		for (String path : first.documents) {
+			merged.documentId(path);
+		}
+
+		// posting lists can be renumbered in place if the order stays the same
+		int[] mapping = new int[second.documents.size()];
+		boolean increasing = true;
+		for (int i = 0; i < mapping.length; i++) {
+			mapping[i] = merged.documentId(second.documents.get(i));
+			increasing &= i == 0 || mapping[i] > mapping[i - 1];
+		}
+
+		int count = 0;
+
+		Iterator<Map.Entry<String, Integer>> a = first.terms.entrySet().iterator();
+		Iterator<Map.Entry<String, Integer>> b = second.terms.entrySet().iterator();
+		Map.Entry<String, Integer> x = a.hasNext() ? a.next() : null;
+		Map.Entry<String, Integer> y = b.hasNext() ? b.next() : null;
+
+		while (x != null || y != null) {
+			int compare = x == null ? 1 : y == null ? -1 : x.getKey().compareTo(y.getKey());
+			PostingList list;
+
+			if (compare <= 0) {
+				merged.terms.put(x.getKey(), count);
+				list = first.postings.get(x.getValue());
+				if (compare == 0) {
+					list.addAll(second.postings.get(y.getValue()), mapping);
 				}
+			} else {
+				merged.terms.put(y.getKey(), count);
+				list = second.postings.get(y.getValue());
+				if (increasing) {
+					list.remap(mapping);
+				} else {
+					list = new PostingList();
+					list.addAll(second.postings.get(y.getValue()), mapping);
+				}
+			}
+
+			if (compare <= 0) {
+				x = a.hasNext() ? a.next() : null;
+			}
+			if (compare >= 0) {
+				y = b.hasNext() ? b.next() : null;
+			}
+
+			merged.postings.add(list);
+			count++;
+		}
+		return merged;
+	}
+
+	/**
+	 * Makes this index read-only and compacts every posting list. Should be
+	 * called once the index has been built and will only be searched or
+	 * written from then on. Any later attempt to add to the index will throw
+	 * an {@link IllegalStateException}.
+	 *
+	 * Also builds a front-coded dictionary of the sorted words, so partial
+	 * searches can find every word starting with a prefix as one range of
+	 * posting lists, and caches the combined postings of popular prefixes.
+	 *
+	 * @see PostingList#freeze()
+	 * @see TermDictionary
+	 */
+	public void freeze() {
+		if (frozen) {
+			return;
+		}
+
+		for (PostingList list : postings) {
+			list.freeze();
+		}
+		postings.trimToSize();
+		documents.trimToSize();
+
+		dictionary = new TermDictionary(terms.keySet());
+		sorted = new PostingList[terms.size()];
+		int i = 0;
+		for (int id : terms.values()) {
+			sorted[i++] = postings.get(id);
+		}
+		prefixCache = Collections.synchronizedMap(new PrefixCache());
+		frozen = true;
+	}
+
+	/**
+	 * Checks whether this index has been frozen.
+	 *
+	 * @return true if this index is read-only
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Estimates the number of bytes of heap used by the posting lists of this
+	 * index. Useful for comparing the size of the index before and after it is
+	 * frozen.
+	 *
+	 * @return estimated size in bytes
+	 */
+	public long estimateMemory() {
+		long bytes = 0;
+		for (PostingList list : postings) {
+			bytes += list.estimateMemory();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Throws an exception if this index has been frozen.
+	 */
+	private void checkMutable() {
+		if (frozen) {
+			throw new IllegalStateException("Inverted index is frozen.");
+		}
+	}
+
+	@Override
+	public Set<String> words() {
+		return Collections.unmodifiableSet(terms.keySet());
+	}
+
+	/**
+	 * Returns the path of every document in the index.
+	 *
+	 * @return paths, in the order they were first added
+	 */
+	public List<String> paths() {
+		return new ArrayList<>(documents);
+	}
+
+	@Override
+	public TreeMap<String, int[]> locations(String word) {
+		TreeMap<String, int[]> locations = new TreeMap<>();
+		Integer id = terms.get(word);
+
+		if (id != null) {
+			PostingList list = postings.get(id);
+			for (int i = 0; i < list.size(); i++) {
+				locations.put(documents.get(list.document(i)), list.positions(i));
 			}
 		}
+
+		return locations;
 	}
 	
 	
@@ -76,7 +417,7 @@ public class InvertedIndex implements InvertedIndexInterface {
 	@Override
 	public void outputFile(Path outputLocation) throws IOException {
 
-		JSONWriter.asNestedObject(index, outputLocation);
+		JSONWriter.asNestedObject(this, outputLocation);
 	}
 
 	
@@ -84,13 +425,13 @@ public class InvertedIndex implements InvertedIndexInterface {
 	public String toString() {
 
 		StringBuilder whole = new StringBuilder();
-		for (String w : index.keySet()) {
+		for (String w : terms.keySet()) {
 
 			whole.append("Key: " + w);
-			for (String p : index.get(w).keySet()) {
+			for (Map.Entry<String, int[]> entry : locations(w).entrySet()) {
 
-				whole.append("\tpath : " + p.toString());
-				whole.append("\t\t" + index.get(w).get(p));
+				whole.append("\tpath : " + entry.getKey());
+				whole.append("\t\t" + Arrays.toString(entry.getValue()));
 			}
 		}
 		return whole.toString();
@@ -100,95 +441,258 @@ public class InvertedIndex implements InvertedIndexInterface {
 	@Override
 	public boolean contains(String key) {
 
-		return index.containsKey(key);
+		return terms.containsKey(key);
 	}
 
 	
 	@Override
 	public int numWords() {
 
-		return index.size();
+		return terms.size();
 	}
 
 	
 	@Override
 	public int numPath(String word) {
 
-		if (index.get(word) == null) {
+		Integer id = terms.get(word);
+		if (id == null) {
 			return 0;
 		}
 
-		return index.get(word).size();
+		return postings.get(id).size();
 	}
 
 	
 	@Override
 	public ArrayList<SearchResult> exactSearch(String[] words) {
+		ArrayList<SearchResult> results = exactMatches(words);
+		Collections.sort(results);
+		return results;
+	}
+
+	@Override
+	public ArrayList<SearchResult> partialSearch(String[] words) {
+		ArrayList<SearchResult> results = partialMatches(words);
+		Collections.sort(results);
+		return results;
+	}
+
+	@Override
+	public ArrayList<SearchResult> search(String[] words, boolean exact, int k) {
+		return SearchResult.topResults(exact ? exactMatches(words) : partialMatches(words), k);
+	}
+
+	/**
+	 * Finds every result for the exact words given, in no particular order.
+	 *
+	 * @param words
+	 *            words to look for
+	 * @return unsorted results
+	 */
+	ArrayList<SearchResult> exactMatches(String[] words) {
 		ArrayList<SearchResult> results = new ArrayList<>();
-		Map<String, SearchResult> map = new TreeMap<>();
+		Map<Integer, SearchResult> map = new HashMap<>();
 		for (String word : words) {
 
-			if (index.containsKey(word)) {
-				searchHelper(word, map, results);
+			Integer id = terms.get(word);
+			if (id != null) {
+				searchHelper(id, map, results);
 			}
 		}
 
-		Collections.sort(results);
 		return results;
 	}
 
 
-	@Override
-	public ArrayList<SearchResult> partialSearch(String[] words) {
-
+	/**
+	 * Finds every result for words starting with any of the given words, in no
+	 * particular order.
+	 *
+	 * @param words
+	 *            prefixes to look for
+	 * @return unsorted results
+	 */
+	ArrayList<SearchResult> partialMatches(String[] words) {
 		ArrayList<SearchResult> results = new ArrayList<>();
-		Map<String, SearchResult> map = new TreeMap<>();
+		Map<Integer, SearchResult> map = new HashMap<>();
 		for (String word : words) {
 
-			for (String key : index.tailMap(word).keySet()) {
+			if (frozen) {
+				prefixHelper(word, map, results);
+				continue;
+			}
+
+			for (Map.Entry<String, Integer> entry : terms.tailMap(word).entrySet()) {
 
-				if (key.startsWith(word)) {
-					searchHelper(key, map, results);
+				if (entry.getKey().startsWith(word)) {
+					searchHelper(entry.getValue(), map, results);
 				} else {
 					break;
 				}
 			}
 		}
 
-		Collections.sort(results);
 		return results;
 	}
 
+	/**
+	 * Adds the results for every word starting with a prefix using the
+	 * dictionary of a frozen index. Prefixes that match many words use the
+	 * cached combined postings of the prefix, computing them if necessary.
+	 *
+	 * @param prefix
+	 *            prefix to look for
+	 * @param map
+	 *            where found values are stored, by document id
+	 * @param results
+	 *            where found results are stored
+	 */
+	private void prefixHelper(String prefix, Map<Integer, SearchResult> map, ArrayList<SearchResult> results) {
+		int[] range = dictionary.prefixRange(prefix);
+
+		if (range[1] - range[0] < PREFIX_CACHE_MIN_WORDS) {
+			for (int id = range[0]; id < range[1]; id++) {
+				PostingList list = sorted[id];
+				for (int i = 0; i < list.size(); i++) {
+					accumulate(list.document(i), list.frequency(i), list.first(i), map, results);
+				}
+			}
+			return;
+		}
+
+		PrefixPostings combined = prefixCache.get(prefix);
+		if (combined == null) {
+			combined = new PrefixPostings(sorted, range[0], range[1], documents.size());
+			prefixCache.put(prefix, combined);
+		}
+
+		for (int i = 0; i < combined.documents.length; i++) {
+			accumulate(combined.documents[i], combined.frequencies[i], combined.firsts[i], map, results);
+		}
+	}
+
 	/**
 	 * Adds founds values to a map of Search results if values are new, else
 	 * update current frequency if result already exists. functionality relies
 	 * on the mutability of objects/
 	 * 
-	 * @param key
-	 *            value to look for
+	 * @param id
+	 *            id of the word to look for
 	 * @param map
-	 *            where found values are stored
+	 *            where found values are stored, by document id
 	 * @param results
 	 *            where found results are stored
 	 */
-	private void searchHelper(String key, Map<String, SearchResult> map, ArrayList<SearchResult> results) {
-		for (Map.Entry<String, TreeSet<Integer>> entry : index.get(key).entrySet()) {
+	private void searchHelper(int id, Map<Integer, SearchResult> map, ArrayList<SearchResult> results) {
+		PostingList list = postings.get(id);
+		for (int i = 0; i < list.size(); i++) {
+			accumulate(list.document(i), list.frequency(i), list.first(i), map, results);
+		}
+	}
 
-			if (map.containsKey(entry.getKey())) {
+	/**
+	 * Adds one document to the results, or updates its result if the document
+	 * was already found.
+	 *
+	 * @param document
+	 *            id of the document
+	 * @param frequency
+	 *            number of occurrences found in the document
+	 * @param first
+	 *            lowest position found in the document
+	 * @param map
+	 *            where found values are stored, by document id
+	 * @param results
+	 *            where found results are stored
+	 */
+	private void accumulate(int document, int frequency, int first, Map<Integer, SearchResult> map,
+			ArrayList<SearchResult> results) {
 
-				map.get(entry.getKey()).addFrequency(entry.getValue().size());
-				map.get(entry.getKey()).updatePosition(entry.getValue().first());
-			} else {
+		SearchResult found = map.get(document);
 
-				SearchResult sr = new SearchResult(entry.getValue().size(), entry.getValue().first(), entry.getKey());
-				map.put(entry.getKey(), sr);
-				results.add(sr);
-			}
+		if (found != null) {
+
+			found.addFrequency(frequency);
+			found.updatePosition(first);
+		} else {
+
+			SearchResult sr = new SearchResult(frequency, first, documents.get(document));
+			map.put(document, sr);
+			results.add(sr);
 		}
 	}
 
-	
-}
+	/**
+	 * The postings of every word starting with one prefix, combined into one
+	 * frequency and first position per document.
+	 */
+	private static class PrefixPostings {
+
+		private final int[] documents;
+		private final int[] frequencies;
+		private final int[] firsts;
+
+		/**
+		 * Combines a range of posting lists.
+		 *
+		 * @param lists
+		 *            sorted posting lists
+		 * @param from
+		 *            first list to combine
+		 * @param to
+		 *            one past the last list to combine
+		 * @param total
+		 *            number of documents in the index
+		 */
+		public PrefixPostings(PostingList[] lists, int from, int to, int total) {
+			int[] frequency = new int[total];
+			int[] first = new int[total];
+			int count = 0;
+
+			for (int id = from; id < to; id++) {
+				PostingList list = lists[id];
+				for (int i = 0; i < list.size(); i++) {
+					int document = list.document(i);
+
+					if (frequency[document] == 0) {
+						first[document] = list.first(i);
+						count++;
+					} else {
+						first[document] = Math.min(first[document], list.first(i));
+					}
+					frequency[document] += list.frequency(i);
+				}
+			}
 
+			documents = new int[count];
+			frequencies = new int[count];
+			firsts = new int[count];
 
+			for (int document = 0, i = 0; document < total; document++) {
+				if (frequency[document] > 0) {
+					documents[i] = document;
+					frequencies[i] = frequency[document];
+					firsts[i] = first[document];
+					i++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Keeps the most recently used {@link #PREFIX_CACHE_SIZE} prefixes.
+	 */
+	@SuppressWarnings("serial")
+	private static class PrefixCache extends LinkedHashMap<String, PrefixPostings> {
+
+		public PrefixCache() {
+			super(16, 0.75f, true);
+		}
 
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, PrefixPostings> eldest) {
+			return size() > PREFIX_CACHE_SIZE;
+		}
+	}
+}
@@ -1,6 +1,8 @@
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Set;
+import java.util.TreeMap;
 
 public interface InvertedIndexInterface {
 
@@ -35,6 +37,24 @@ public interface InvertedIndexInterface {
 	 */
 	public void addAll(InvertedIndex other);
 
+	/**
+	 * Returns the words in the index in sorted order.
+	 *
+	 * @return unmodifiable view of the words
+	 */
+	public Set<String> words();
+
+	/**
+	 * Returns the paths a word was found in, mapped to the sorted positions of
+	 * the word in each path.
+	 *
+	 * @param word
+	 *            word to look up
+	 * @return paths sorted by name mapped to positions, empty if the word is
+	 *         not in the index
+	 */
+	public TreeMap<String, int[]> locations(String word);
+
 	/**
 	 * writes the jsonFile
 	 *
@@ -96,4 +116,21 @@ public interface InvertedIndexInterface {
 	 */
 	public ArrayList<SearchResult> partialSearch(String[] words);
 
+	/**
+	 * Searches for the query words and returns only the k best results, in the
+	 * same order {@link #exactSearch(String[])} or
+	 * {@link #partialSearch(String[])} would return them.
+	 *
+	 * @param words
+	 *            list of words to look for in inverted index
+	 * @param exact
+	 *            whether to do an exact search instead of a partial search
+	 * @param k
+	 *            maximum number of results to return
+	 * @return up to k sorted results
+	 *
+	 * @see SearchResult#topResults(java.util.Collection, int)
+	 */
+	public ArrayList<SearchResult> search(String[] words, boolean exact, int k);
+
 }
@@ -7,6 +7,7 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
@@ -72,6 +73,37 @@ public class JSONWriter {
 		writer.write("]");
 	}
 
+	/**
+	 * Writes the sorted array of elements as a JSON array at the specified
+	 * indent level.
+	 *
+	 * @param writer
+	 *            writer to use for output
+	 * @param elements
+	 *            elements to write as JSON array
+	 * @param level
+	 *            number of times to indent the array itself
+	 * @throws IOException
+	 */
+	private static void asArray(Writer writer, int[] elements, int level) throws IOException {
+
+		writer.write("[");
+
+		for (int i = 0; i < elements.length; i++) {
+
+			if (i > 0) {
+				writer.write(",");
+			}
+			writer.write(System.lineSeparator());
+			writer.write(indent(level + 1));
+			writer.write(Integer.toString(elements[i]));
+		}
+
+		writer.write(System.lineSeparator());
+		writer.write(indent(level));
+		writer.write("]");
+	}
+
 	/**
 	 * Writes the set of elements as a JSON array to the path using UTF8.
 	 *
@@ -125,6 +157,43 @@ public class JSONWriter {
 		writer.write("}");
 	}
 
+	/**
+	 * Writes the map of elements as a JSON object at the specified indent
+	 * level.
+	 *
+	 * @param writer
+	 *            writer to use for output
+	 * @param elements
+	 *            elements to write as a JSON object
+	 * @param level
+	 *            number of times to indent the object itself
+	 * @throws IOException
+	 */
+	private static void asPositionObject(Writer writer, TreeMap<String, int[]> elements, int level)
+			throws IOException {
+
+		writer.write("{");
+		writer.write(System.lineSeparator());
+		if (!elements.isEmpty()) {
+
+			for (Map.Entry<String, int[]> entry : elements.headMap(elements.lastKey()).entrySet()) {
+
+				writer.write(indent(level + 1));
+				writer.write("\"" + entry.getKey() + "\": ");
+				asArray(writer, entry.getValue(), level + 1);
+				writer.write(",");
+				writer.write(System.lineSeparator());
+			}
+
+			writer.write(indent(level));
+			writer.write("\"" + elements.lastKey() + "\": ");
+			asArray(writer, elements.lastEntry().getValue(), level + 1);
+		}
+		writer.write(indent(level));
+		writer.write(System.lineSeparator());
+		writer.write("}");
+	}
+
 	/**
 	 * Writes the set of elements as a JSON object with a nested array to the
 	 * path using UTF8.
@@ -165,6 +234,48 @@ public class JSONWriter {
 		}
 	}
 
+	/**
+	 * Writes the inverted index as a JSON object with a nested array to the
+	 * path using UTF8. Produces the same output as
+	 * {@link #asNestedObject(TreeMap, Path)}, one word at a time.
+	 *
+	 * @param index
+	 *            inverted index to write
+	 * @param path
+	 *            path to write file
+	 * @throws IOException
+	 */
+	public static void asNestedObject(InvertedIndexInterface index, Path path) throws IOException {
+
+		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+
+			int level = 0;
+			Iterator<String> iterator = index.words().iterator();
+
+			writer.write("{");
+			writer.write(System.lineSeparator());
+			while (iterator.hasNext()) {
+				String k = iterator.next();
+
+				if (iterator.hasNext()) {
+					writer.write(indent(level + 1));
+					writer.write("\"" + k + "\": ");
+					asPositionObject(writer, index.locations(k), level + 1);
+					writer.write(",");
+					writer.write(System.lineSeparator());
+				} else {
+					writer.write(indent(level));
+					writer.write("\"" + k + "\": ");
+					asPositionObject(writer, index.locations(k), level + 1);
+				}
+			}
+			writer.write(indent(level));
+			writer.write(System.lineSeparator());
+			writer.write("}");
+			writer.flush();
+		}
+	}
+
 	/**
 	 * Write the query map to a file
 	 *
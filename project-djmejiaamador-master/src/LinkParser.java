@@ -11,6 +11,9 @@ public class LinkParser {
 
 	public static final Pattern SPLIT_REGEX = Pattern.compile("<a href=.*a>");
 
+	/** Matches the href of an anchor tag, compiled once for every page. */
+	private static final Pattern LINK_REGEX = Pattern.compile("(?mis)(?:<\\s*a[^>]*href\\s*=\\s*\")([^\"]*)");
+
 	// https://developer.mozilla.org/en-US/docs/Web/HTML/Element/a
 	// https://docs.oracle.com/javase/tutorial/networking/urls/creatingUrls.html
 	// https://developer.mozilla.org/en-US/docs/Learn/Common_questions/What_is_a_URL
@@ -63,12 +66,10 @@ public class LinkParser {
 	 *            raw html associated with the base url
 	 * @return cleaned list of all http(s) links in the order they were found
 	 */
-	public static ArrayList<URL> listLinks(URL base, String html) {
+	public static ArrayList<URL> listLinks(URL base, CharSequence html) {
 		ArrayList<URL> links = new ArrayList<URL>();
 		// URL base = new URL("http://www.cs.usfca.edu/~sjengle/cs212/");
-		Pattern pattern = Pattern.compile("(?mis)(?:<\\s*a[^>]*href\\s*=\\s*\")([^\"]*)");
-
-		Matcher matcher = pattern.matcher(html);
+		Matcher matcher = LINK_REGEX.matcher(html);
 
 		while (matcher.find()) {
 
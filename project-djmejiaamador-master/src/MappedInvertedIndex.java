@@ -0,0 +1,759 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A read-only inverted index backed by a binary snapshot file that is memory
+ * mapped instead of read. Opening a snapshot only maps the file, so startup
+ * takes the same time no matter how large the index is, and searches read the
+ * mapped buffers directly instead of building anything on the heap. Since
+ * nothing is ever written, it is safe to search from many threads at once.
+ *
+ * Snapshots are written with {@link #write(InvertedIndexInterface, Path)}. All
+ * numbers are big-endian, and the file is laid out as:
+ *
+ * <pre>
+ * header    magic, version, word count, path count (4 ints),
+ *           path table offset, word table offset (2 longs)
+ * paths     offsets into the names (path count + 1 ints), UTF-8 names
+ * postings  for each word: number of paths (int), then for each path its
+ *           id, frequency and first position (3 ints), then for each path
+ *           the gaps between its remaining positions as variable-byte ints
+ * words     offset of the postings of each word (word count longs),
+ *           offsets into the names (word count + 1 ints), UTF-8 names
+ * </pre>
+ *
+ * Paths and words are both stored in sorted order, so path ids sort the same
+ * way as the paths themselves.
+ */
+public class MappedInvertedIndex implements InvertedIndexInterface {
+
+	/** Marks the start of a snapshot file, "SIDX". */
+	public static final int MAGIC = 0x53494458;
+
+	/** Version of the snapshot format written by this class. */
+	public static final int VERSION = 1;
+
+	/** Size of the header in bytes. */
+	private static final int HEADER = 4 * 4 + 2 * 8;
+
+	/** Largest region mapped by a single buffer. */
+	private static final long CHUNK = 1L << 30;
+
+	/** Mapped regions of the file, each {@link #CHUNK} bytes except the last. */
+	private final MappedByteBuffer[] chunks;
+
+	/** Number of words in the snapshot. */
+	private final int wordCount;
+
+	/** Number of paths in the snapshot. */
+	private final int pathCount;
+
+	/** Where the path table starts. */
+	private final long pathTable;
+
+	/** Where the word table starts. */
+	private final long wordTable;
+
+	/**
+	 * Opens and memory maps a snapshot file.
+	 *
+	 * @param path
+	 *            snapshot file to open
+	 * @throws IOException
+	 *             if the file cannot be mapped or is not a snapshot
+	 */
+	public MappedInvertedIndex(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			chunks = new MappedByteBuffer[(int) ((size + CHUNK - 1) / CHUNK)];
+
+			for (int i = 0; i < chunks.length; i++) {
+				long start = i * CHUNK;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK, size - start));
+			}
+
+			if (size < HEADER || getInt(0) != MAGIC) {
+				throw new IOException("Not an index snapshot: " + path);
+			}
+		}
+
+		if (getInt(4) != VERSION) {
+			throw new IOException("Unsupported index snapshot version: " + getInt(4));
+		}
+
+		wordCount = getInt(8);
+		pathCount = getInt(12);
+		pathTable = getLong(16);
+		wordTable = getLong(24);
+	}
+
+	/**
+	 * Writes a snapshot of an index to a file, replacing the file if it
+	 * already exists.
+	 *
+	 * @param index
+	 *            index to write
+	 * @param path
+	 *            file to write to
+	 * @throws IOException
+	 */
+	public static void write(InvertedIndexInterface index, Path path) throws IOException {
+		if (index instanceof ThreadSafeInvertedIndex) {
+			// held still while written, so the path table matches the postings
+			((ThreadSafeInvertedIndex) index).write(path);
+		} else {
+			writeUnlocked(index, path);
+		}
+	}
+
+	/**
+	 * Writes a snapshot of an index that does not change while it is written.
+	 * Reads the postings of every word only once: an {@link InvertedIndex}
+	 * lists its paths itself, and the postings of any other index are kept
+	 * from the pass that collects its paths.
+	 *
+	 * @param index
+	 *            index to write
+	 * @param path
+	 *            file to write to
+	 * @throws IOException
+	 * @see #write(InvertedIndexInterface, Path)
+	 */
+	static void writeUnlocked(InvertedIndexInterface index, Path path) throws IOException {
+		// path ids are assigned in sorted order
+		TreeSet<String> sorted = new TreeSet<>();
+		ArrayList<String> words = new ArrayList<>(index.words());
+		ArrayList<TreeMap<String, int[]>> gathered = null;
+
+		if (index instanceof InvertedIndex) {
+			sorted.addAll(((InvertedIndex) index).paths());
+		} else {
+			gathered = new ArrayList<>(words.size());
+			for (String word : words) {
+				TreeMap<String, int[]> locations = index.locations(word);
+				sorted.addAll(locations.keySet());
+				gathered.add(locations);
+			}
+		}
+
+		HashMap<String, Integer> ids = new HashMap<>();
+		ArrayList<String> paths = new ArrayList<>(sorted);
+		for (int i = 0; i < paths.size(); i++) {
+			ids.put(paths.get(i), i);
+		}
+
+		try (SnapshotWriter writer = new SnapshotWriter(path)) {
+			writer.skip(HEADER);
+
+			long pathOffset = writer.position();
+			writeNames(writer, paths);
+
+			long[] postings = new long[words.size()];
+			for (int i = 0; i < postings.length; i++) {
+				postings[i] = writer.position();
+				TreeMap<String, int[]> locations = gathered != null ? gathered.set(i, null)
+						: index.locations(words.get(i));
+
+				writer.putInt(locations.size());
+				for (Map.Entry<String, int[]> entry : locations.entrySet()) {
+					writer.putInt(ids.get(entry.getKey()));
+					writer.putInt(entry.getValue().length);
+					writer.putInt(entry.getValue()[0]);
+				}
+
+				for (int[] positions : locations.values()) {
+					for (int j = 1; j < positions.length; j++) {
+						writer.putVarInt(positions[j] - positions[j - 1]);
+					}
+				}
+			}
+
+			long wordOffset = writer.position();
+			for (long posting : postings) {
+				writer.putLong(posting);
+			}
+			writeNames(writer, words);
+
+			writer.flush();
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			header.putInt(MAGIC).putInt(VERSION).putInt(words.size()).putInt(paths.size());
+			header.putLong(pathOffset).putLong(wordOffset);
+			header.flip();
+			writer.writeAt(header, 0);
+		}
+	}
+
+	/**
+	 * Writes a table of names: the offset of each name, the end offset, and
+	 * then the UTF-8 bytes of every name.
+	 *
+	 * @param writer
+	 *            where to write
+	 * @param list
+	 *            names to write
+	 * @throws IOException
+	 */
+	private static void writeNames(SnapshotWriter writer, ArrayList<String> list) throws IOException {
+		byte[][] names = encode(list);
+		int offset = 0;
+		for (byte[] name : names) {
+			writer.putInt(offset);
+			offset += name.length;
+		}
+		writer.putInt(offset);
+		for (byte[] name : names) {
+			writer.put(name);
+		}
+	}
+
+	/**
+	 * Encodes each string as UTF-8.
+	 *
+	 * @param list
+	 *            strings to encode
+	 * @return encoded strings
+	 */
+	private static byte[][] encode(ArrayList<String> list) {
+		byte[][] encoded = new byte[list.size()][];
+		for (int i = 0; i < encoded.length; i++) {
+			encoded[i] = list.get(i).getBytes(StandardCharsets.UTF_8);
+		}
+		return encoded;
+	}
+
+	@Override
+	public void add(String word, String path, int position) {
+		throw new UnsupportedOperationException("Snapshot indexes are read-only.");
+	}
+
+	@Override
+	public void addAll(String[] words, String file, int start) {
+		throw new UnsupportedOperationException("Snapshot indexes are read-only.");
+	}
+
+	@Override
+	public void addAll(InvertedIndex other) {
+		throw new UnsupportedOperationException("Snapshot indexes are read-only.");
+	}
+
+	@Override
+	public Set<String> words() {
+		return new AbstractSet<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new Iterator<String>() {
+					private int next = 0;
+
+					@Override
+					public boolean hasNext() {
+						return next < wordCount;
+					}
+
+					@Override
+					public String next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						return word(next++);
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return o instanceof String && find((String) o) >= 0;
+			}
+
+			@Override
+			public int size() {
+				return wordCount;
+			}
+		};
+	}
+
+	@Override
+	public TreeMap<String, int[]> locations(String word) {
+		TreeMap<String, int[]> locations = new TreeMap<>();
+		int id = find(word);
+
+		if (id >= 0) {
+			long block = postings(id);
+			int size = getInt(block);
+			long gaps = block + 4 + 12L * size;
+
+			for (int i = 0; i < size; i++) {
+				long entry = block + 4 + 12L * i;
+				int[] positions = new int[getInt(entry + 4)];
+				positions[0] = getInt(entry + 8);
+
+				for (int j = 1; j < positions.length; j++) {
+					int delta = 0;
+					int shift = 0;
+					byte b;
+					do {
+						b = get(gaps++);
+						delta |= (b & 0x7F) << shift;
+						shift += 7;
+					} while (b < 0);
+					positions[j] = positions[j - 1] + delta;
+				}
+
+				locations.put(path(getInt(entry)), positions);
+			}
+		}
+
+		return locations;
+	}
+
+	/**
+	 * Copies the snapshot into an index on the heap, which can be added to
+	 * and have documents removed from.
+	 *
+	 * @return copy of the snapshot
+	 */
+	public InvertedIndex copy() {
+		InvertedIndex copy = new InvertedIndex();
+
+		for (String word : words()) {
+			for (Map.Entry<String, int[]> entry : locations(word).entrySet()) {
+				for (int position : entry.getValue()) {
+					copy.add(word, entry.getKey(), position);
+				}
+			}
+		}
+
+		return copy;
+	}
+
+	@Override
+	public void outputFile(Path outputLocation) throws IOException {
+		JSONWriter.asNestedObject(this, outputLocation);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder whole = new StringBuilder();
+		for (String w : words()) {
+
+			whole.append("Key: " + w);
+			for (Map.Entry<String, int[]> entry : locations(w).entrySet()) {
+
+				whole.append("\tpath : " + entry.getKey());
+				whole.append("\t\t" + Arrays.toString(entry.getValue()));
+			}
+		}
+		return whole.toString();
+	}
+
+	@Override
+	public boolean contains(String key) {
+		return find(key) >= 0;
+	}
+
+	@Override
+	public int numWords() {
+		return wordCount;
+	}
+
+	@Override
+	public int numPath(String word) {
+		int id = find(word);
+		return id < 0 ? 0 : getInt(postings(id));
+	}
+
+	@Override
+	public ArrayList<SearchResult> exactSearch(String[] words) {
+		ArrayList<SearchResult> results = exactMatches(words);
+		Collections.sort(results);
+		return results;
+	}
+
+	@Override
+	public ArrayList<SearchResult> partialSearch(String[] words) {
+		ArrayList<SearchResult> results = partialMatches(words);
+		Collections.sort(results);
+		return results;
+	}
+
+	@Override
+	public ArrayList<SearchResult> search(String[] words, boolean exact, int k) {
+		return SearchResult.topResults(exact ? exactMatches(words) : partialMatches(words), k);
+	}
+
+	/**
+	 * Finds every result for the exact words given, in no particular order.
+	 *
+	 * @param words
+	 *            words to look for
+	 * @return unsorted results
+	 */
+	private ArrayList<SearchResult> exactMatches(String[] words) {
+		ArrayList<SearchResult> results = new ArrayList<>();
+		Map<Integer, SearchResult> map = new HashMap<>();
+		for (String word : words) {
+
+			int id = find(word);
+			if (id >= 0) {
+				searchHelper(id, map, results);
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Finds every result for words starting with any of the given words, in no
+	 * particular order.
+	 *
+	 * @param words
+	 *            prefixes to look for
+	 * @return unsorted results
+	 */
+	private ArrayList<SearchResult> partialMatches(String[] words) {
+		ArrayList<SearchResult> results = new ArrayList<>();
+		Map<Integer, SearchResult> map = new HashMap<>();
+		for (String word : words) {
+
+			int id = find(word);
+			for (id = id < 0 ? -(id + 1) : id; id < wordCount; id++) {
+
+				if (compareWord(id, word, true) == 0) {
+					searchHelper(id, map, results);
+				} else {
+					break;
+				}
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Adds founds values to a map of Search results if values are new, else
+	 * update current frequency if result already exists. Only reads the
+	 * frequency and first position stored for each path, never the positions.
+	 *
+	 * @param id
+	 *            id of the word to look for
+	 * @param map
+	 *            where found values are stored, by path id
+	 * @param results
+	 *            where found results are stored
+	 */
+	private void searchHelper(int id, Map<Integer, SearchResult> map, ArrayList<SearchResult> results) {
+		long block = postings(id);
+		int size = getInt(block);
+
+		for (int i = 0; i < size; i++) {
+
+			long entry = block + 4 + 12L * i;
+			int path = getInt(entry);
+			int frequency = getInt(entry + 4);
+			int first = getInt(entry + 8);
+			SearchResult found = map.get(path);
+
+			if (found != null) {
+
+				found.addFrequency(frequency);
+				found.updatePosition(first);
+			} else {
+
+				SearchResult sr = new SearchResult(frequency, first, path(path));
+				map.put(path, sr);
+				results.add(sr);
+			}
+		}
+	}
+
+	/**
+	 * Binary searches the sorted words for a word.
+	 *
+	 * @param word
+	 *            word to look for
+	 * @return id of the word, or (-(insertion point) - 1) if not found
+	 */
+	private int find(String word) {
+		int low = 0;
+		int high = wordCount - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int compare = compareWord(middle, word, false);
+
+			if (compare < 0) {
+				low = middle + 1;
+			} else if (compare > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+
+		return -(low + 1);
+	}
+
+	/**
+	 * Compares a word in the word table with a string the way
+	 * {@link String#compareTo(String)} would, decoding the mapped UTF-8 bytes
+	 * as it goes instead of building a string for every comparison.
+	 *
+	 * @param id
+	 *            id of the word in the table
+	 * @param word
+	 *            string to compare it with
+	 * @param prefix
+	 *            whether a table word starting with the string counts as equal
+	 * @return negative, zero or positive as the table word sorts before, the
+	 *         same as, or after the string
+	 */
+	private int compareWord(int id, String word, boolean prefix) {
+		long offsets = wordTable + 8L * wordCount;
+		long names = offsets + 4L * (wordCount + 1);
+		long position = names + getInt(offsets + 4L * id);
+		long end = names + getInt(offsets + 4L * (id + 1));
+		int i = 0;
+
+		// the second half of a character outside the basic plane
+		char low = 0;
+
+		while (position < end || low != 0) {
+			char c;
+			if (low != 0) {
+				c = low;
+				low = 0;
+			} else {
+				int b = get(position++) & 0xFF;
+				int code;
+				if (b < 0x80) {
+					code = b;
+				} else if (b < 0xE0) {
+					code = (b & 0x1F) << 6 | (get(position++) & 0x3F);
+				} else if (b < 0xF0) {
+					code = (b & 0x0F) << 12 | (get(position++) & 0x3F) << 6 | (get(position++) & 0x3F);
+				} else {
+					code = (b & 0x07) << 18 | (get(position++) & 0x3F) << 12 | (get(position++) & 0x3F) << 6
+							| (get(position++) & 0x3F);
+				}
+
+				if (Character.isSupplementaryCodePoint(code)) {
+					c = Character.highSurrogate(code);
+					low = Character.lowSurrogate(code);
+				} else {
+					c = (char) code;
+				}
+			}
+
+			if (i == word.length()) {
+				return prefix ? 0 : 1;
+			}
+
+			int compare = Character.compare(c, word.charAt(i++));
+			if (compare != 0) {
+				return compare;
+			}
+		}
+
+		return i == word.length() ? 0 : -1;
+	}
+
+	/**
+	 * Returns where the postings of a word start.
+	 *
+	 * @param id
+	 *            id of the word
+	 * @return offset into the file
+	 */
+	private long postings(int id) {
+		return getLong(wordTable + 8L * id);
+	}
+
+	/**
+	 * Reads a word from the word table.
+	 *
+	 * @param id
+	 *            id of the word
+	 * @return the word
+	 */
+	private String word(int id) {
+		long offsets = wordTable + 8L * wordCount;
+		return name(offsets, offsets + 4L * (wordCount + 1), id);
+	}
+
+	/**
+	 * Reads a path from the path table.
+	 *
+	 * @param id
+	 *            id of the path
+	 * @return the path
+	 */
+	private String path(int id) {
+		return name(pathTable, pathTable + 4L * (pathCount + 1), id);
+	}
+
+	/**
+	 * Reads a name from a table of names.
+	 *
+	 * @param offsets
+	 *            where the offsets of the table start
+	 * @param names
+	 *            where the names of the table start
+	 * @param id
+	 *            index of the name in the table
+	 * @return the name
+	 */
+	private String name(long offsets, long names, int id) {
+		int start = getInt(offsets + 4L * id);
+		int end = getInt(offsets + 4L * (id + 1));
+		byte[] bytes = new byte[end - start];
+
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = get(names + start + i);
+		}
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads a byte from the mapped file.
+	 *
+	 * @param position
+	 *            offset into the file
+	 * @return the byte
+	 */
+	private byte get(long position) {
+		return chunks[(int) (position / CHUNK)].get((int) (position % CHUNK));
+	}
+
+	/**
+	 * Reads a big-endian int from the mapped file, even if it crosses from one
+	 * mapped region into the next.
+	 *
+	 * @param position
+	 *            offset into the file
+	 * @return the int
+	 */
+	private int getInt(long position) {
+		int offset = (int) (position % CHUNK);
+		MappedByteBuffer chunk = chunks[(int) (position / CHUNK)];
+
+		if (offset + 4 <= chunk.limit()) {
+			return chunk.getInt(offset);
+		}
+
+		int value = 0;
+		for (int i = 0; i < 4; i++) {
+			value = (value << 8) | (get(position + i) & 0xFF);
+		}
+		return value;
+	}
+
+	/**
+	 * Reads a big-endian long from the mapped file.
+	 *
+	 * @param position
+	 *            offset into the file
+	 * @return the long
+	 */
+	private long getLong(long position) {
+		return ((long) getInt(position) << 32) | (getInt(position + 4) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Buffers writes to a snapshot file and keeps track of the offset being
+	 * written, since snapshots may be larger than an int can address.
+	 */
+	private static class SnapshotWriter implements AutoCloseable {
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+
+		public SnapshotWriter(Path path) throws IOException {
+			channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			buffer = ByteBuffer.allocate(1 << 16);
+		}
+
+		public long position() throws IOException {
+			return channel.position() + buffer.position();
+		}
+
+		public void skip(int bytes) throws IOException {
+			flush();
+			channel.position(channel.position() + bytes);
+		}
+
+		public void putInt(int value) throws IOException {
+			ensure(4);
+			buffer.putInt(value);
+		}
+
+		public void putLong(long value) throws IOException {
+			ensure(8);
+			buffer.putLong(value);
+		}
+
+		public void putVarInt(int value) throws IOException {
+			ensure(5);
+			while ((value & ~0x7F) != 0) {
+				buffer.put((byte) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			buffer.put((byte) value);
+		}
+
+		public void put(byte[] bytes) throws IOException {
+			if (bytes.length > buffer.capacity()) {
+				flush();
+				channel.write(ByteBuffer.wrap(bytes));
+			} else {
+				ensure(bytes.length);
+				buffer.put(bytes);
+			}
+		}
+
+		public void writeAt(ByteBuffer bytes, long position) throws IOException {
+			while (bytes.hasRemaining()) {
+				position += channel.write(bytes, position);
+			}
+		}
+
+		public void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if (buffer.remaining() < bytes) {
+				flush();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				channel.close();
+			}
+		}
+	}
+}
@@ -35,15 +35,18 @@ public class MessageServlet extends HttpServlet {
 	public static final String VISIT_COUNT = "Count";
 
 	private static final String TITLE = "Search Engine";
+
+	/** Most results shown for a single search. */
+	public static final int MAX_RESULTS = 50;
 	private static Logger log = Log.getRootLogger();
-	private final ThreadSafeInvertedIndex index;
+	private final InvertedIndexInterface index;
 
 	private ConcurrentLinkedQueue<String> messages;
 	private static String query;
 	private static ArrayList<SearchResult> results;
 	private static ArrayList<String> searchedQueries;
 
-	public MessageServlet(ThreadSafeInvertedIndex index) {
+	public MessageServlet(InvertedIndexInterface index) {
 		super();
 		this.index = index;
 		messages = new ConcurrentLinkedQueue<>();
@@ -144,7 +147,7 @@ public class MessageServlet extends HttpServlet {
 			String[] words = WordParser.parseWords(query);
 
 			Arrays.sort(words);
-			results = index.partialSearch(words);
+			results = index.search(words, false, MAX_RESULTS);
 
 		} else {
 			results.clear();
@@ -1,6 +1,9 @@
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -9,11 +12,33 @@ public class MultiThreadedIndexBuilder implements IndexBuilderInterface {
 
 	private static final Logger log = LogManager.getLogger();
 	private final WorkQueue queue;
-	private final ThreadSafeInvertedIndex index;
+	private final InvertedIndexInterface index;
+	private final int bufferSize;
+	private final boolean mapped;
 
-	public MultiThreadedIndexBuilder(WorkQueue queue, ThreadSafeInvertedIndex index) {
+	public MultiThreadedIndexBuilder(WorkQueue queue, InvertedIndexInterface index) {
+		this(queue, index, IndexBuilder.DEFAULT_BUFFER_SIZE, false);
+	}
+
+	/**
+	 * Initializes a builder whose minions each read files through a buffer of
+	 * the given size, or by mapping them into memory.
+	 *
+	 * @param queue
+	 *            work queue to read files on
+	 * @param index
+	 *            index to add words to
+	 * @param bufferSize
+	 *            size in bytes of the buffer each file is read through
+	 * @param mapped
+	 *            whether to map files into memory instead of reading them
+	 */
+	public MultiThreadedIndexBuilder(WorkQueue queue, InvertedIndexInterface index, int bufferSize,
+			boolean mapped) {
 		this.queue = queue;
 		this.index = index;
+		this.bufferSize = bufferSize;
+		this.mapped = mapped;
 		log.debug("created mutli builder");
 	}
 
@@ -21,6 +46,11 @@ public class MultiThreadedIndexBuilder implements IndexBuilderInterface {
 	 * Reads a file, strips all HTML and parses words then adds words and paths
 	 * and # of occurrences to inverted index but Multi-threaded.
 	 *
+	 * Each minion takes the next file from a shared cursor and adds it to an
+	 * index of its own, so that threads never wait on each other while
+	 * parsing. The minions' indexes are then merged in pairs on the queue,
+	 * round after round, and the shared index is written once at the end.
+	 *
 	 * @param paths:
 	 *            Array list of files to read.
 	 * @param index
@@ -30,12 +60,39 @@ public class MultiThreadedIndexBuilder implements IndexBuilderInterface {
 	 */
 	@Override
 	public void buildIndex(ArrayList<Path> paths) throws IOException {
+		if (paths.isEmpty()) {
+			return;
+		}
 
-		for (Path file : paths) {
+		AtomicInteger next = new AtomicInteger();
+		List<InvertedIndex> locals = Collections.synchronizedList(new ArrayList<>());
+		int minions = Math.min(queue.size(), paths.size());
 
-			queue.execute(new IndexMinion(file, index));
+		// every minion and merge is needed, so they wait for room if the queue is full
+		for (int i = 0; i < minions; i++) {
+			queue.execute(new IndexMinion(paths, next, locals, bufferSize, mapped), WorkQueue.Rejection.BLOCK);
 		}
 		queue.finish();
+
+		while (locals.size() > 1) {
+			ArrayList<InvertedIndex> round = new ArrayList<>(locals);
+			locals.clear();
+
+			// an index without a partner waits for the next round
+			if (round.size() % 2 == 1) {
+				locals.add(round.get(round.size() - 1));
+			}
+
+			for (int i = 0; i + 1 < round.size(); i += 2) {
+				queue.execute(new MergeMinion(round.get(i), round.get(i + 1), locals), WorkQueue.Rejection.BLOCK);
+			}
+			queue.finish();
+			log.debug("merged down to {} indexes", locals.size());
+		}
+
+		if (!locals.isEmpty()) {
+			index.addAll(locals.get(0));
+		}
 	}
 
 	/**
@@ -46,27 +103,59 @@ public class MultiThreadedIndexBuilder implements IndexBuilderInterface {
 	 */
 	private static class IndexMinion implements Runnable {
 
-		private Path path;
-		private ThreadSafeInvertedIndex index;
+		private ArrayList<Path> paths;
+		private AtomicInteger next;
+		private List<InvertedIndex> locals;
+		private int bufferSize;
+		private boolean mapped;
 
-		public IndexMinion(Path path, ThreadSafeInvertedIndex index) {
-			this.path = path;
-			this.index = index;
+		public IndexMinion(ArrayList<Path> paths, AtomicInteger next, List<InvertedIndex> locals, int bufferSize,
+				boolean mapped) {
+			this.paths = paths;
+			this.next = next;
+			this.locals = locals;
+			this.bufferSize = bufferSize;
+			this.mapped = mapped;
 			log.debug("Minion created ");
 		}
 
 		@Override
 		public void run() {
-			try {
-				log.debug("working on paths");
-				InvertedIndex local = new InvertedIndex();
-				IndexBuilder.buildIndex(path, local);
-				index.addAll(local);
-				log.debug("complete work on paths");
-
-			} catch (IOException e) {
-				log.debug(e.getMessage(), e);
+			log.debug("working on paths");
+			InvertedIndex local = new InvertedIndex();
+			int i;
+
+			while ((i = next.getAndIncrement()) < paths.size()) {
+				try {
+					IndexBuilder.buildIndex(paths.get(i), local, bufferSize, mapped);
+				} catch (IOException e) {
+					log.debug(e.getMessage(), e);
+				}
 			}
+
+			locals.add(local);
+			log.debug("complete work on paths");
+		}
+	}
+
+	/**
+	 * Merges two of the minions' indexes into one.
+	 */
+	private static class MergeMinion implements Runnable {
+
+		private InvertedIndex first;
+		private InvertedIndex second;
+		private List<InvertedIndex> merged;
+
+		public MergeMinion(InvertedIndex first, InvertedIndex second, List<InvertedIndex> merged) {
+			this.first = first;
+			this.second = second;
+			this.merged = merged;
+		}
+
+		@Override
+		public void run() {
+			merged.add(InvertedIndex.merge(first, second));
 		}
 	}
-}
\ No newline at end of file
+}
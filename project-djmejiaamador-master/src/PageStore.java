@@ -0,0 +1,277 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the HTML of crawled pages on disk, along with the ETag and
+ * Last-Modified values the server sent with them, so that a later crawl can
+ * ask the server to only send pages that changed and reuse the stored copy of
+ * the rest. The stored pages can also be indexed again without any network
+ * access at all.
+ *
+ * Pages are keyed by normalized URL. Each page is one file named by the
+ * fingerprint of its URL, spread over 256 subdirectories so that no single
+ * directory gets too large. A page is written to a temporary file first and
+ * then moved into place, so a reader never sees half a page.
+ *
+ * @see HTTPFetcher#fetchHTML(URL, HTTPConnectionPool, PageStore, long)
+ */
+public class PageStore {
+
+	/** Directory used when none is given. */
+	public static final String DEFAULT_DIRECTORY = "pages";
+
+	/** Extension of the file of each page. */
+	private static final String EXTENSION = ".page";
+
+	/** Marks the start of a page file, "PAGE". */
+	private static final int MAGIC = 0x50414745;
+
+	private final Path directory;
+
+	/** Number of pages reused after the server said they had not changed. */
+	private final AtomicInteger hits;
+
+	/** Number of pages written. */
+	private final AtomicInteger writes;
+
+	/**
+	 * Initializes a store in a directory, which is created once the first page
+	 * is written.
+	 *
+	 * @param directory
+	 *            where to keep pages
+	 */
+	public PageStore(Path directory) {
+		this.directory = directory;
+		this.hits = new AtomicInteger();
+		this.writes = new AtomicInteger();
+	}
+
+	/**
+	 * Returns the file a url is stored in.
+	 *
+	 * @param url
+	 *            url of the page
+	 * @return path of its file
+	 */
+	private Path file(String url) {
+		String name = String.format("%016x", SeenURLSet.fingerprint(url));
+		return directory.resolve(name.substring(0, 2)).resolve(name + EXTENSION);
+	}
+
+	/**
+	 * Returns the stored copy of a page.
+	 *
+	 * @param url
+	 *            url of the page
+	 * @return the page, or null if it is not stored
+	 * @throws IOException
+	 *             if the stored page cannot be read
+	 */
+	public Page get(URL url) throws IOException {
+		String normal = SeenURLSet.normalize(url);
+		try {
+			Page page = read(file(normal));
+
+			// two urls may share a fingerprint, however unlikely
+			return SeenURLSet.normalize(new URL(page.url)).equals(normal) ? page : null;
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stores a page, replacing any copy stored before.
+	 *
+	 * @param page
+	 *            page to store
+	 * @throws IOException
+	 */
+	public void put(Page page) throws IOException {
+		Path file = file(SeenURLSet.normalize(new URL(page.url)));
+		Files.createDirectories(file.getParent());
+
+		Path partial = Files.createTempFile(file.getParent(), "page", ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(partial)))) {
+				byte[] html = page.html.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(MAGIC);
+				out.writeUTF(page.url);
+				out.writeUTF(page.etag == null ? "" : page.etag);
+				out.writeUTF(page.modified == null ? "" : page.modified);
+				out.writeInt(html.length);
+				out.write(html);
+			}
+			Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			writes.incrementAndGet();
+		} finally {
+			Files.deleteIfExists(partial);
+		}
+	}
+
+	/**
+	 * Forgets a page, such as one that is gone or no longer HTML.
+	 *
+	 * @param url
+	 *            url of the page
+	 * @throws IOException
+	 */
+	public void remove(URL url) throws IOException {
+		Files.deleteIfExists(file(SeenURLSet.normalize(url)));
+	}
+
+	/**
+	 * Reads a page file.
+	 *
+	 * @param file
+	 *            file to read
+	 * @return the page
+	 * @throws IOException
+	 *             if the file cannot be read or is not a page
+	 */
+	public static Page read(Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a stored page: " + file);
+			}
+
+			String url = in.readUTF();
+			String etag = in.readUTF();
+			String modified = in.readUTF();
+			byte[] html = new byte[in.readInt()];
+			in.readFully(html);
+
+			return new Page(url, etag.isEmpty() ? null : etag, modified.isEmpty() ? null : modified,
+					new String(html, StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Lists the files of every stored page.
+	 *
+	 * @return page files, in no particular order
+	 * @throws IOException
+	 */
+	public ArrayList<Path> files() throws IOException {
+		ArrayList<Path> files = new ArrayList<>();
+		if (!Files.isDirectory(directory)) {
+			return files;
+		}
+
+		try (Stream<Path> walk = Files.walk(directory, 2)) {
+			walk.filter(path -> path.getFileName().toString().endsWith(EXTENSION)).forEach(files::add);
+		}
+		return files;
+	}
+
+	/**
+	 * Counts a page reused because the server said it had not changed.
+	 */
+	public void hit() {
+		hits.incrementAndGet();
+	}
+
+	/**
+	 * Returns the number of pages reused because they had not changed.
+	 *
+	 * @return number of pages reused
+	 */
+	public int getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of pages written, new or changed.
+	 *
+	 * @return number of pages written
+	 */
+	public int getWrites() {
+		return writes.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d pages unchanged, %d written", directory, getHits(), getWrites());
+	}
+
+	/**
+	 * A stored page: its url as fetched, the validators the server sent with
+	 * it, and its HTML.
+	 */
+	public static class Page {
+
+		private final String url;
+		private final String etag;
+		private final String modified;
+		private final String html;
+
+		/**
+		 * Initializes a page.
+		 *
+		 * @param url
+		 *            url the page was fetched from
+		 * @param etag
+		 *            value of the ETag header, or null if there was none
+		 * @param modified
+		 *            value of the Last-Modified header, or null if there was
+		 *            none
+		 * @param html
+		 *            HTML of the page
+		 */
+		public Page(String url, String etag, String modified, String html) {
+			this.url = url;
+			this.etag = etag;
+			this.modified = modified;
+			this.html = html;
+		}
+
+		/**
+		 * Returns the url the page was fetched from.
+		 *
+		 * @return the url
+		 */
+		public String getURL() {
+			return url;
+		}
+
+		/**
+		 * Returns the ETag the server sent with the page.
+		 *
+		 * @return the ETag, or null if there was none
+		 */
+		public String getETag() {
+			return etag;
+		}
+
+		/**
+		 * Returns the Last-Modified date the server sent with the page.
+		 *
+		 * @return the date as sent, or null if there was none
+		 */
+		public String getLastModified() {
+			return modified;
+		}
+
+		/**
+		 * Returns the HTML of the page.
+		 *
+		 * @return the HTML
+		 */
+		public String getHTML() {
+			return html;
+		}
+	}
+}
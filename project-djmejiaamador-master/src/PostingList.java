@@ -0,0 +1,468 @@
+import java.util.Arrays;
+
+/**
+ * The postings of a single word: the documents the word was found in, and the
+ * sorted, unique positions of the word within each of those documents. All
+ * values are kept in growable primitive arrays so that no boxing takes place
+ * per occurrence. Documents are identified by the dense integer ids handed out
+ * by {@link InvertedIndex}, and are kept sorted by id.
+ *
+ * Once {@link #freeze()} is called, the list becomes read-only and the
+ * positions of each document are stored as variable-byte encoded deltas, with
+ * the frequency and first position of each document kept alongside so that
+ * searches never have to decode them.
+ */
+public class PostingList {
+
+	/** Initial capacity of a new array of documents or positions. */
+	private static final int INITIAL_CAPACITY = 4;
+
+	/** Estimated size of an object header in bytes. */
+	private static final int OBJECT_HEADER = 12;
+
+	/** Estimated size of an array header in bytes. */
+	private static final int ARRAY_HEADER = 16;
+
+	/** Sorted document ids. */
+	private int[] documents;
+
+	/** Sorted positions for each document, parallel to {@link #documents}. */
+	private int[][] positions;
+
+	/** Number of positions used in each of the position arrays. */
+	private int[] counts;
+
+	/** Number of documents in this posting list. */
+	private int size;
+
+	/** First position of each document, only set once frozen. */
+	private int[] firsts;
+
+	/** Delta and variable-byte encoded positions, only set once frozen. */
+	private byte[] encoded;
+
+	/**
+	 * Offset into {@link #encoded} of the positions of each document, with one
+	 * extra entry marking the end. Only set once frozen.
+	 */
+	private int[] offsets;
+
+	/**
+	 * Initializes an empty posting list.
+	 */
+	public PostingList() {
+		documents = new int[INITIAL_CAPACITY];
+		positions = new int[INITIAL_CAPACITY][];
+		counts = new int[INITIAL_CAPACITY];
+		size = 0;
+	}
+
+	/**
+	 * Adds a position for the given document. Duplicate positions are ignored.
+	 *
+	 * @param document
+	 *            id of the document the word was found in
+	 * @param position
+	 *            position the word was found at
+	 */
+	public void add(int document, int position) {
+		checkMutable();
+		int i = find(document);
+
+		if (i < 0) {
+			i = insertDocument(-(i + 1), document, new int[INITIAL_CAPACITY], 0);
+		}
+
+		int count = counts[i];
+		int[] list = positions[i];
+
+		// common case, positions are usually added in increasing order
+		if (count == 0 || list[count - 1] < position) {
+			if (count == list.length) {
+				list = Arrays.copyOf(list, count * 2);
+				positions[i] = list;
+			}
+			list[count] = position;
+			counts[i]++;
+			return;
+		}
+
+		int j = Arrays.binarySearch(list, 0, count, position);
+		if (j >= 0) {
+			return;
+		}
+
+		j = -(j + 1);
+		if (count == list.length) {
+			list = Arrays.copyOf(list, count * 2);
+			positions[i] = list;
+		}
+		System.arraycopy(list, j, list, j + 1, count - j);
+		list[j] = position;
+		counts[i]++;
+	}
+
+	/**
+	 * Adds all of the postings from another list to this one.
+	 *
+	 * @param other
+	 *            posting list to add
+	 * @param mapping
+	 *            maps the document ids of the other list to the document ids
+	 *            used by this list
+	 */
+	public void addAll(PostingList other, int[] mapping) {
+		checkMutable();
+		for (int k = 0; k < other.size; k++) {
+			int document = mapping[other.documents[k]];
+			int i = find(document);
+			int[] copy = other.positions(k);
+
+			if (i < 0) {
+				insertDocument(-(i + 1), document, copy, copy.length);
+			} else {
+				merge(i, copy, copy.length);
+			}
+		}
+	}
+
+	/**
+	 * Changes the document ids of this list in place, without copying any
+	 * positions. Only valid if the mapping keeps the documents in the same
+	 * order.
+	 *
+	 * @param mapping
+	 *            maps the document ids of this list to new, increasing ids
+	 */
+	public void remap(int[] mapping) {
+		checkMutable();
+		for (int i = 0; i < size; i++) {
+			documents[i] = mapping[documents[i]];
+		}
+	}
+
+	/**
+	 * Removes documents from this list and renumbers the rest in place. Only
+	 * valid if the mapping keeps the remaining documents in the same order.
+	 *
+	 * @param mapping
+	 *            maps the document ids of this list to new, increasing ids,
+	 *            or to -1 for documents to remove
+	 * @return number of documents left in this list
+	 */
+	public int retain(int[] mapping) {
+		checkMutable();
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			int document = mapping[documents[i]];
+			if (document >= 0) {
+				documents[kept] = document;
+				positions[kept] = positions[i];
+				counts[kept] = counts[i];
+				kept++;
+			}
+		}
+
+		// let go of the positions of removed documents
+		Arrays.fill(positions, kept, size, null);
+		size = kept;
+		return size;
+	}
+
+	/**
+	 * Makes this list read-only, trimming all arrays to size and replacing the
+	 * positions of each document with variable-byte encoded deltas. Calling
+	 * this more than once has no effect.
+	 */
+	public void freeze() {
+		if (isFrozen()) {
+			return;
+		}
+
+		int total = 0;
+		for (int i = 0; i < size; i++) {
+			for (int j = 1; j < counts[i]; j++) {
+				total += varIntLength(positions[i][j] - positions[i][j - 1]);
+			}
+		}
+
+		byte[] bytes = new byte[total];
+		int[] starts = new int[size + 1];
+		int[] lowest = new int[size];
+		int offset = 0;
+
+		for (int i = 0; i < size; i++) {
+			starts[i] = offset;
+			lowest[i] = positions[i][0];
+			for (int j = 1; j < counts[i]; j++) {
+				offset = writeVarInt(bytes, offset, positions[i][j] - positions[i][j - 1]);
+			}
+		}
+		starts[size] = offset;
+
+		documents = Arrays.copyOf(documents, size);
+		counts = Arrays.copyOf(counts, size);
+		firsts = lowest;
+		offsets = starts;
+		encoded = bytes;
+		positions = null;
+	}
+
+	/**
+	 * Checks whether this list has been frozen.
+	 *
+	 * @return true if this list is read-only
+	 */
+	public boolean isFrozen() {
+		return encoded != null;
+	}
+
+	/**
+	 * Estimates the number of bytes of heap used by this list, assuming
+	 * compressed object pointers.
+	 *
+	 * @return estimated size in bytes
+	 */
+	public long estimateMemory() {
+		long bytes = OBJECT_HEADER + arraySize(documents.length, 4) + arraySize(counts.length, 4);
+
+		if (isFrozen()) {
+			bytes += arraySize(firsts.length, 4) + arraySize(offsets.length, 4) + arraySize(encoded.length, 1);
+		} else {
+			bytes += arraySize(positions.length, 4);
+			for (int i = 0; i < size; i++) {
+				bytes += arraySize(positions[i].length, 4);
+			}
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Returns the number of documents in this posting list.
+	 *
+	 * @return number of documents
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the id of the document at the given index of this list.
+	 *
+	 * @param i
+	 *            index into this list
+	 * @return document id
+	 */
+	public int document(int i) {
+		return documents[i];
+	}
+
+	/**
+	 * Returns how many times the word occurs in the document at the given index
+	 * of this list.
+	 *
+	 * @param i
+	 *            index into this list
+	 * @return number of positions
+	 */
+	public int frequency(int i) {
+		return counts[i];
+	}
+
+	/**
+	 * Returns the first position of the word in the document at the given index
+	 * of this list.
+	 *
+	 * @param i
+	 *            index into this list
+	 * @return lowest position
+	 */
+	public int first(int i) {
+		return isFrozen() ? firsts[i] : positions[i][0];
+	}
+
+	/**
+	 * Returns a copy of the sorted positions of the word in the document at the
+	 * given index of this list.
+	 *
+	 * @param i
+	 *            index into this list
+	 * @return sorted positions
+	 */
+	public int[] positions(int i) {
+		if (!isFrozen()) {
+			return Arrays.copyOf(positions[i], counts[i]);
+		}
+
+		int[] decoded = new int[counts[i]];
+		int offset = offsets[i];
+		decoded[0] = firsts[i];
+
+		for (int j = 1; j < decoded.length; j++) {
+			int delta = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = encoded[offset++];
+				delta |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			decoded[j] = decoded[j - 1] + delta;
+		}
+
+		return decoded;
+	}
+
+	/**
+	 * Throws an exception if this list has been frozen.
+	 */
+	private void checkMutable() {
+		if (isFrozen()) {
+			throw new IllegalStateException("Posting list is frozen.");
+		}
+	}
+
+	/**
+	 * Finds the index of a document in this list.
+	 *
+	 * @param document
+	 *            document id to look for
+	 * @return index of the document, or (-(insertion point) - 1) if not found
+	 */
+	private int find(int document) {
+		// common case, the document is the one most recently added
+		if (size > 0 && documents[size - 1] == document) {
+			return size - 1;
+		}
+
+		if (size == 0 || documents[size - 1] < document) {
+			return -(size + 1);
+		}
+
+		return Arrays.binarySearch(documents, 0, size, document);
+	}
+
+	/**
+	 * Inserts a new document and its positions at the given index.
+	 *
+	 * @param i
+	 *            index to insert at
+	 * @param document
+	 *            document id
+	 * @param list
+	 *            positions of the document
+	 * @param count
+	 *            number of positions used in the list
+	 * @return index the document was inserted at
+	 */
+	private int insertDocument(int i, int document, int[] list, int count) {
+		if (size == documents.length) {
+			int capacity = size * 2;
+			documents = Arrays.copyOf(documents, capacity);
+			positions = Arrays.copyOf(positions, capacity);
+			counts = Arrays.copyOf(counts, capacity);
+		}
+
+		if (i < size) {
+			System.arraycopy(documents, i, documents, i + 1, size - i);
+			System.arraycopy(positions, i, positions, i + 1, size - i);
+			System.arraycopy(counts, i, counts, i + 1, size - i);
+		}
+
+		documents[i] = document;
+		positions[i] = list;
+		counts[i] = count;
+		size++;
+		return i;
+	}
+
+	/**
+	 * Merges sorted positions into the positions of the document at the given
+	 * index, dropping any duplicates.
+	 *
+	 * @param i
+	 *            index of the document
+	 * @param other
+	 *            sorted positions to merge in
+	 * @param otherCount
+	 *            number of positions used in the other array
+	 */
+	private void merge(int i, int[] other, int otherCount) {
+		int[] list = positions[i];
+		int count = counts[i];
+		int[] merged = new int[count + otherCount];
+		int a = 0, b = 0, m = 0;
+
+		while (a < count && b < otherCount) {
+			if (list[a] < other[b]) {
+				merged[m++] = list[a++];
+			} else if (list[a] > other[b]) {
+				merged[m++] = other[b++];
+			} else {
+				merged[m++] = list[a++];
+				b++;
+			}
+		}
+
+		while (a < count) {
+			merged[m++] = list[a++];
+		}
+
+		while (b < otherCount) {
+			merged[m++] = other[b++];
+		}
+
+		positions[i] = merged;
+		counts[i] = m;
+	}
+
+	/**
+	 * Returns the number of bytes needed to variable-byte encode a value.
+	 *
+	 * @param value
+	 *            non-negative value to encode
+	 * @return number of bytes between 1 and 5
+	 */
+	private static int varIntLength(int value) {
+		int length = 1;
+		while ((value >>>= 7) != 0) {
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * Variable-byte encodes a value, seven bits per byte with the high bit set
+	 * on every byte except the last.
+	 *
+	 * @param bytes
+	 *            array to write to
+	 * @param offset
+	 *            where to start writing
+	 * @param value
+	 *            non-negative value to encode
+	 * @return offset after the last byte written
+	 */
+	private static int writeVarInt(byte[] bytes, int offset, int value) {
+		while ((value & ~0x7F) != 0) {
+			bytes[offset++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		bytes[offset++] = (byte) value;
+		return offset;
+	}
+
+	/**
+	 * Estimates the size of an array, rounded up to 8 bytes.
+	 *
+	 * @param length
+	 *            number of elements
+	 * @param width
+	 *            bytes per element
+	 * @return estimated size in bytes
+	 */
+	private static long arraySize(int length, int width) {
+		return (ARRAY_HEADER + (long) length * width + 7) & ~7L;
+	}
+}
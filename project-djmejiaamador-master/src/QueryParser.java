@@ -12,9 +12,26 @@ public class QueryParser implements QueryParserInterface {
 	private final TreeMap<String, ArrayList<SearchResult>> resultMap;
 	private final InvertedIndexInterface index;
 
+	/** Maximum number of results kept for each query. */
+	private final int limit;
+
 
 	public QueryParser(InvertedIndexInterface index) {
+		this(index, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Initializes a query parser that only keeps the best results of each
+	 * query.
+	 *
+	 * @param index
+	 *            index to search
+	 * @param limit
+	 *            maximum number of results to keep for each query
+	 */
+	public QueryParser(InvertedIndexInterface index, int limit) {
 		this.index = index;
+		this.limit = limit;
 		resultMap = new TreeMap<>();
 
 	}
@@ -42,11 +59,7 @@ public class QueryParser implements QueryParserInterface {
 
 				Arrays.sort(words);
 
-				if (exact) {
-					resultMap.put(String.join(" ", words), index.exactSearch(words));
-				} else {
-					resultMap.put(String.join(" ", words), index.partialSearch(words));
-				}
+				resultMap.put(String.join(" ", words), index.search(words, exact, limit));
 			}
 		}
 	}
@@ -1,3 +1,8 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.PriorityQueue;
+
 public class SearchResult implements Comparable<SearchResult> {
 
 	/** # of occurrences of result */
@@ -91,6 +96,42 @@ public class SearchResult implements Comparable<SearchResult> {
 		return path;
 	}
 
+	/**
+	 * Returns the k best results in sorted order. Only keeps a heap of the k
+	 * best results seen so far, ordered so the worst of them is on top, which
+	 * takes O(n log k) time instead of sorting all n results.
+	 *
+	 * @param results
+	 *            unsorted results
+	 * @param k
+	 *            maximum number of results to return
+	 * @return up to k results, sorted best first
+	 */
+	public static ArrayList<SearchResult> topResults(Collection<SearchResult> results, int k) {
+		if (k >= results.size()) {
+			ArrayList<SearchResult> sorted = new ArrayList<>(results);
+			Collections.sort(sorted);
+			return sorted;
+		}
+
+		PriorityQueue<SearchResult> heap = new PriorityQueue<>(Math.max(k, 1), Collections.reverseOrder());
+		for (SearchResult result : results) {
+			if (heap.size() < k) {
+				heap.add(result);
+			} else if (k > 0 && result.compareTo(heap.peek()) < 0) {
+				heap.poll();
+				heap.add(result);
+			}
+		}
+
+		ArrayList<SearchResult> top = new ArrayList<>(heap.size());
+		while (!heap.isEmpty()) {
+			top.add(heap.poll());
+		}
+		Collections.reverse(top);
+		return top;
+	}
+
 	/**
 	 * What to print
 	 */
@@ -0,0 +1,331 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers which URLs a crawl has already seen, using a 64-bit fingerprint
+ * of each normalized URL instead of the {@link URL} itself. Unlike a set of
+ * URLs, it never resolves host names to compare them, and takes 8 bytes or so
+ * per URL. The fingerprints are spread over many small hash tables, each with
+ * its own lock, so threads adding different URLs rarely wait on each other.
+ *
+ * Can instead be backed by a {@link BloomFilter} of fixed size, for crawls of
+ * millions of URLs where memory matters more than now and then skipping a URL
+ * that was never actually seen.
+ */
+public class SeenURLSet {
+
+	/** Number of separately locked tables, a power of two. */
+	private static final int SEGMENTS = 64;
+
+	/** Default number of URLs a Bloom filter is sized for. */
+	public static final int DEFAULT_EXPECTED = 1000000;
+
+	/** Default false positive rate when backed by a Bloom filter. */
+	public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.001;
+
+	/** Exact fingerprints, or null if backed by a Bloom filter. */
+	private final Segment[] segments;
+
+	/** Approximate fingerprints, or null if exact. */
+	private final BloomFilter bloom;
+
+	/** Number of URLs added for the first time. */
+	private final AtomicLong size;
+
+	/**
+	 * Initializes an exact set.
+	 */
+	public SeenURLSet() {
+		this.segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment();
+		}
+		this.bloom = null;
+		this.size = new AtomicLong();
+	}
+
+	/**
+	 * Initializes a set backed by a Bloom filter, whose memory use does not
+	 * grow with the number of URLs added.
+	 *
+	 * @param expected
+	 *            number of URLs expected to be added
+	 * @param falsePositiveRate
+	 *            chance of a new URL being taken for one already seen
+	 */
+	public SeenURLSet(long expected, double falsePositiveRate) {
+		this.segments = null;
+		this.bloom = new BloomFilter(expected, falsePositiveRate);
+		this.size = new AtomicLong();
+	}
+
+	/**
+	 * Initializes a set backed by an existing Bloom filter.
+	 *
+	 * @param bloom
+	 *            filter holding the fingerprints seen so far
+	 */
+	private SeenURLSet(BloomFilter bloom) {
+		this.segments = null;
+		this.bloom = bloom;
+		this.size = new AtomicLong();
+	}
+
+	/**
+	 * Adds a URL.
+	 *
+	 * @param url
+	 *            url to add
+	 * @return true if the url had not been seen before
+	 */
+	public boolean add(URL url) {
+		long fingerprint = fingerprint(normalize(url));
+		boolean added;
+
+		if (bloom != null) {
+			added = bloom.add(fingerprint);
+		} else {
+			// the low bits pick the slot, so pick the segment with the high bits
+			added = segments[(int) (fingerprint >>> 58) & (SEGMENTS - 1)].add(fingerprint);
+		}
+
+		if (added) {
+			size.incrementAndGet();
+		}
+		return added;
+	}
+
+	/**
+	 * Checks whether a URL has been seen.
+	 *
+	 * @param url
+	 *            url to check
+	 * @return true if the url has been added, or might have been if backed by
+	 *         a Bloom filter
+	 */
+	public boolean contains(URL url) {
+		long fingerprint = fingerprint(normalize(url));
+
+		if (bloom != null) {
+			return bloom.mightContain(fingerprint);
+		}
+		return segments[(int) (fingerprint >>> 58) & (SEGMENTS - 1)].contains(fingerprint);
+	}
+
+	/**
+	 * Returns the number of URLs added.
+	 *
+	 * @return number of distinct URLs seen
+	 */
+	public long size() {
+		return size.get();
+	}
+
+	/**
+	 * Writes the set to a file, replacing the file if it already exists. URLs
+	 * added while writing may or may not be included.
+	 *
+	 * @param path
+	 *            file to write to
+	 * @throws IOException
+	 */
+	public void write(Path path) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			out.writeBoolean(bloom != null);
+			out.writeLong(size());
+
+			if (bloom != null) {
+				bloom.write(out);
+			} else {
+				for (Segment segment : segments) {
+					segment.write(out);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a set written by {@link #write(Path)}.
+	 *
+	 * @param path
+	 *            file to read
+	 * @return the set, exact or backed by a Bloom filter as it was written
+	 * @throws IOException
+	 *             if the file cannot be read or does not hold a set
+	 */
+	public static SeenURLSet read(Path path) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			boolean approximate = in.readBoolean();
+			long size = in.readLong();
+			SeenURLSet set = approximate ? new SeenURLSet(BloomFilter.read(in)) : new SeenURLSet();
+
+			if (!approximate) {
+				for (Segment segment : set.segments) {
+					segment.read(in);
+				}
+			}
+
+			set.size.set(size);
+			return set;
+		}
+	}
+
+	/**
+	 * Builds the string a URL is identified by. The scheme and host are
+	 * compared ignoring case, the default port is left out, an empty path is
+	 * the same as "/", and any fragment is ignored. Unlike
+	 * {@link URL#equals(Object)}, never looks up the host.
+	 *
+	 * @param url
+	 *            url to normalize
+	 * @return normalized url
+	 */
+	public static String normalize(URL url) {
+		StringBuilder normal = new StringBuilder();
+		normal.append(url.getProtocol().toLowerCase()).append("://");
+		normal.append(url.getHost().toLowerCase());
+
+		if (url.getPort() >= 0 && url.getPort() != url.getDefaultPort()) {
+			normal.append(':').append(url.getPort());
+		}
+
+		normal.append(url.getPath().isEmpty() ? "/" : url.getPath());
+
+		if (url.getQuery() != null) {
+			normal.append('?').append(url.getQuery());
+		}
+		return normal.toString();
+	}
+
+	/**
+	 * Hashes a string into 64 bits, using FNV-1a followed by a final mix so
+	 * that every bit depends on every character. Two different URLs among a
+	 * few million share a fingerprint with a chance of about one in a million.
+	 *
+	 * @param text
+	 *            text to hash
+	 * @return the fingerprint
+	 */
+	public static long fingerprint(String text) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < text.length(); i++) {
+			hash ^= text.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return size() + " urls seen" + (bloom == null ? "" : ", " + bloom);
+	}
+
+	/**
+	 * An open addressing hash table of fingerprints, guarded by its own lock.
+	 * Zero marks an empty slot, so a fingerprint of zero is stored as one.
+	 */
+	private static class Segment {
+
+		private long[] table;
+		private int size;
+
+		public Segment() {
+			table = new long[16];
+			size = 0;
+		}
+
+		public synchronized boolean add(long fingerprint) {
+			fingerprint = fingerprint == 0 ? 1 : fingerprint;
+			int mask = table.length - 1;
+			int i = (int) fingerprint & mask;
+
+			while (table[i] != 0) {
+				if (table[i] == fingerprint) {
+					return false;
+				}
+				i = (i + 1) & mask;
+			}
+
+			table[i] = fingerprint;
+			size++;
+
+			// keep at most three quarters of the slots full
+			if (size * 4 > table.length * 3) {
+				grow();
+			}
+			return true;
+		}
+
+		public synchronized boolean contains(long fingerprint) {
+			fingerprint = fingerprint == 0 ? 1 : fingerprint;
+			int mask = table.length - 1;
+			int i = (int) fingerprint & mask;
+
+			while (table[i] != 0) {
+				if (table[i] == fingerprint) {
+					return true;
+				}
+				i = (i + 1) & mask;
+			}
+			return false;
+		}
+
+		/**
+		 * Writes the number of fingerprints followed by each one.
+		 */
+		public synchronized void write(DataOutputStream out) throws IOException {
+			out.writeInt(size);
+			for (long fingerprint : table) {
+				if (fingerprint != 0) {
+					out.writeLong(fingerprint);
+				}
+			}
+		}
+
+		/**
+		 * Adds every fingerprint written by {@link #write(DataOutputStream)}.
+		 */
+		public synchronized void read(DataInputStream in) throws IOException {
+			int count = in.readInt();
+			if (count < 0) {
+				throw new IOException("Malformed seen URL set.");
+			}
+
+			for (int i = 0; i < count; i++) {
+				add(in.readLong());
+			}
+		}
+
+		/**
+		 * Doubles the table and puts every fingerprint back.
+		 */
+		private void grow() {
+			long[] old = table;
+			table = new long[old.length * 2];
+			int mask = table.length - 1;
+
+			for (long fingerprint : old) {
+				if (fingerprint != 0) {
+					int i = (int) fingerprint & mask;
+					while (table[i] != 0) {
+						i = (i + 1) & mask;
+					}
+					table[i] = fingerprint;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,368 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A thread safe inverted index made of immutable segments, in the style of a
+ * log-structured merge tree. Every call to add words flushes a new small
+ * segment, a frozen {@link InvertedIndex}, instead of growing one big index
+ * under one lock. Whenever {@link #MERGE_FACTOR} segments of a similar size
+ * pile up, they are merged into one bigger segment in the background on the
+ * work queue, so the number of segments stays logarithmic in the size of the
+ * index.
+ *
+ * Searches fan out over whatever segments are live when they start, and never
+ * block on adds or merges. If the same path is added more than once, its
+ * results are combined across segments, but a position added more than once
+ * is counted once per segment until those segments are merged.
+ */
+public class SegmentedInvertedIndex implements InvertedIndexInterface {
+
+	private static final Logger log = LogManager.getLogger();
+
+	/** Number of segments in the same tier that triggers a merge. */
+	public static final int MERGE_FACTOR = 8;
+
+	/** Estimated size in bytes of the largest segment in the lowest tier. */
+	private static final long TIER_BASE = 1 << 16;
+
+	/** Work queue used to run merges in the background. */
+	private final WorkQueue queue;
+
+	/** Live segments, replaced as a whole every time it changes. */
+	private volatile List<InvertedIndex> segments;
+
+	/**
+	 * Maps each tier to its live segments that are not being merged, so that
+	 * no segment is measured more than once. Also guards changes to the list
+	 * of live segments.
+	 */
+	private final HashMap<Integer, ArrayList<InvertedIndex>> idle;
+
+	/**
+	 * Initializes an empty index.
+	 *
+	 * @param queue
+	 *            work queue to run merges on
+	 */
+	public SegmentedInvertedIndex(WorkQueue queue) {
+		this.queue = queue;
+		this.segments = Collections.emptyList();
+		this.idle = new HashMap<>();
+	}
+
+	/**
+	 * Freezes a segment and makes it live, then schedules a merge if its tier
+	 * has filled up.
+	 *
+	 * @param segment
+	 *            segment to add, must not be used by the caller afterwards
+	 */
+	private void flush(InvertedIndex segment) {
+		segment.freeze();
+
+		// measured once, outside the lock
+		int tier = tier(segment);
+		synchronized (idle) {
+			ArrayList<InvertedIndex> updated = new ArrayList<>(segments);
+			updated.add(segment);
+			segments = Collections.unmodifiableList(updated);
+			schedule(segment, tier);
+		}
+	}
+
+	/**
+	 * Files a live segment under its tier, and starts merging the tier if
+	 * enough of its segments are waiting. Must be called while holding the
+	 * lock on {@link #idle}.
+	 *
+	 * @param segment
+	 *            live segment not being merged
+	 * @param tier
+	 *            tier of the segment
+	 */
+	private void schedule(InvertedIndex segment, int tier) {
+		ArrayList<InvertedIndex> waiting = idle.get(tier);
+		if (waiting == null) {
+			waiting = new ArrayList<>();
+			idle.put(tier, waiting);
+		}
+		waiting.add(segment);
+		scheduleMerge(tier);
+	}
+
+	/**
+	 * Starts merging the segments of a tier if there are enough of them that
+	 * are not already being merged. Must be called while holding the lock on
+	 * {@link #idle}.
+	 *
+	 * @param tier
+	 *            tier to check
+	 */
+	private void scheduleMerge(int tier) {
+		ArrayList<InvertedIndex> picked = idle.get(tier);
+		if (picked == null || picked.size() < MERGE_FACTOR) {
+			return;
+		}
+
+		idle.remove(tier);
+		log.debug("Merging {} segments in tier {}", picked.size(), tier);
+
+		// never waits while holding the lock; a later flush tries again
+		if (!queue.execute(new MergeMinion(picked, tier), WorkQueue.Rejection.DISCARD)) {
+			idle.put(tier, picked);
+		}
+	}
+
+	/**
+	 * Returns the size tier of a segment. Each tier holds segments about
+	 * {@link #MERGE_FACTOR} times larger than the tier below it.
+	 *
+	 * @param segment
+	 *            segment to check
+	 * @return tier starting at 0
+	 */
+	private static int tier(InvertedIndex segment) {
+		long size = segment.estimateMemory();
+		int tier = 0;
+		for (long limit = TIER_BASE; size > limit; limit *= MERGE_FACTOR) {
+			tier++;
+		}
+		return tier;
+	}
+
+	/**
+	 * Returns the number of live segments.
+	 *
+	 * @return number of segments
+	 */
+	public int numSegments() {
+		return segments.size();
+	}
+
+	@Override
+	public void add(String word, String path, int position) {
+		addAll(new String[] { word }, path, position);
+	}
+
+	@Override
+	public void addAll(String[] words, String file, int start) {
+		InvertedIndex segment = new InvertedIndex();
+		segment.addAll(words, file, start);
+		flush(segment);
+	}
+
+	@Override
+	public void addAll(InvertedIndex other) {
+		InvertedIndex segment = new InvertedIndex();
+		segment.addAll(other);
+		flush(segment);
+	}
+
+	@Override
+	public Set<String> words() {
+		TreeSet<String> words = new TreeSet<>();
+		for (InvertedIndex segment : segments) {
+			words.addAll(segment.words());
+		}
+		return Collections.unmodifiableSet(words);
+	}
+
+	@Override
+	public TreeMap<String, int[]> locations(String word) {
+		TreeMap<String, int[]> locations = new TreeMap<>();
+		for (InvertedIndex segment : segments) {
+			for (Map.Entry<String, int[]> entry : segment.locations(word).entrySet()) {
+				int[] previous = locations.get(entry.getKey());
+				locations.put(entry.getKey(),
+						previous == null ? entry.getValue() : union(previous, entry.getValue()));
+			}
+		}
+		return locations;
+	}
+
+	/**
+	 * Combines two sorted arrays of positions, dropping duplicates.
+	 *
+	 * @param first
+	 *            sorted positions
+	 * @param second
+	 *            sorted positions
+	 * @return sorted, unique positions found in either array
+	 */
+	private static int[] union(int[] first, int[] second) {
+		int[] merged = new int[first.length + second.length];
+		int a = 0, b = 0, m = 0;
+
+		while (a < first.length && b < second.length) {
+			if (first[a] < second[b]) {
+				merged[m++] = first[a++];
+			} else if (first[a] > second[b]) {
+				merged[m++] = second[b++];
+			} else {
+				merged[m++] = first[a++];
+				b++;
+			}
+		}
+
+		while (a < first.length) {
+			merged[m++] = first[a++];
+		}
+
+		while (b < second.length) {
+			merged[m++] = second[b++];
+		}
+
+		return Arrays.copyOf(merged, m);
+	}
+
+	@Override
+	public void outputFile(Path outputLocation) throws IOException {
+		JSONWriter.asNestedObject(this, outputLocation);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder whole = new StringBuilder();
+		for (String w : words()) {
+
+			whole.append("Key: " + w);
+			for (Map.Entry<String, int[]> entry : locations(w).entrySet()) {
+
+				whole.append("\tpath : " + entry.getKey());
+				whole.append("\t\t" + Arrays.toString(entry.getValue()));
+			}
+		}
+		return whole.toString();
+	}
+
+	@Override
+	public boolean contains(String key) {
+		for (InvertedIndex segment : segments) {
+			if (segment.contains(key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public int numWords() {
+		return words().size();
+	}
+
+	@Override
+	public int numPath(String word) {
+		return locations(word).size();
+	}
+
+	@Override
+	public ArrayList<SearchResult> exactSearch(String[] words) {
+		return search(words, true, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public ArrayList<SearchResult> partialSearch(String[] words) {
+		return search(words, false, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public ArrayList<SearchResult> search(String[] words, boolean exact, int k) {
+		List<InvertedIndex> live = segments;
+		if (live.size() == 1) {
+			return live.get(0).search(words, exact, k);
+		}
+
+		ArrayList<ArrayList<SearchResult>> found = new ArrayList<>();
+		for (InvertedIndex segment : live) {
+			found.add(exact ? segment.exactMatches(words) : segment.partialMatches(words));
+		}
+		return SearchResult.topResults(combine(found), k);
+	}
+
+	/**
+	 * Combines the unsorted results from each segment into one unsorted list,
+	 * adding up the frequencies and keeping the lowest position of any path
+	 * found in more than one segment.
+	 *
+	 * @param found
+	 *            results of each segment
+	 * @return combined results
+	 */
+	private static ArrayList<SearchResult> combine(ArrayList<ArrayList<SearchResult>> found) {
+		ArrayList<SearchResult> results = new ArrayList<>();
+		Map<String, SearchResult> map = new HashMap<>();
+
+		for (ArrayList<SearchResult> list : found) {
+			for (SearchResult result : list) {
+				SearchResult previous = map.get(result.getPath());
+
+				if (previous != null) {
+					previous.addFrequency(result.getFrequency());
+					previous.updatePosition(result.getPosition());
+				} else {
+					map.put(result.getPath(), result);
+					results.add(result);
+				}
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Minion class takes care of merging several segments into one, then
+	 * swapping the merged segment in for the originals.
+	 */
+	private class MergeMinion implements Runnable {
+
+		private final List<InvertedIndex> picked;
+		private final int tier;
+
+		MergeMinion(List<InvertedIndex> picked, int tier) {
+			this.picked = picked;
+			this.tier = tier;
+		}
+
+		@Override
+		public void run() {
+			InvertedIndex merged = new InvertedIndex();
+			for (InvertedIndex segment : picked) {
+				merged.addAll(segment);
+			}
+			merged.freeze();
+			int next = tier(merged);
+
+			synchronized (idle) {
+				ArrayList<InvertedIndex> updated = new ArrayList<>();
+				Map<InvertedIndex, Boolean> removed = new IdentityHashMap<>();
+				for (InvertedIndex segment : picked) {
+					removed.put(segment, true);
+				}
+
+				for (InvertedIndex segment : segments) {
+					if (!removed.containsKey(segment)) {
+						updated.add(segment);
+					}
+				}
+				updated.add(merged);
+				segments = Collections.unmodifiableList(updated);
+				log.debug("Merged {} segments from tier {}, {} live", picked.size(), tier, updated.size());
+
+				schedule(merged, next);
+			}
+		}
+	}
+}
@@ -0,0 +1,231 @@
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * An immutable, sorted dictionary of words stored as a front-coded array.
+ * Words are split into blocks of {@link #BLOCK_SIZE}. The first word of each
+ * block is stored in full, and every other word only stores how many leading
+ * characters it shares with the word before it plus the rest of its
+ * characters. Words are identified by their rank in sorted order, so all words
+ * starting with a prefix form one contiguous range of ids.
+ *
+ * Words are compared the same way as {@link String#compareTo(String)}.
+ */
+public class TermDictionary {
+
+	/** Number of words in each front-coded block. */
+	public static final int BLOCK_SIZE = 16;
+
+	/** Characters of every word that are not shared with the previous word. */
+	private final char[] data;
+
+	/**
+	 * Where the unshared characters of each word start, with one extra entry
+	 * marking the end.
+	 */
+	private final int[] offsets;
+
+	/** Number of leading characters each word shares with the previous word. */
+	private final int[] shared;
+
+	/**
+	 * Builds a dictionary from words that are already sorted and unique.
+	 *
+	 * @param words
+	 *            sorted, unique words
+	 */
+	public TermDictionary(Collection<String> words) {
+		offsets = new int[words.size() + 1];
+		shared = new int[words.size()];
+
+		StringBuilder builder = new StringBuilder();
+		String previous = "";
+		int i = 0;
+
+		for (String word : words) {
+			int common = 0;
+			if (i % BLOCK_SIZE != 0) {
+				int max = Math.min(previous.length(), word.length());
+				while (common < max && previous.charAt(common) == word.charAt(common)) {
+					common++;
+				}
+			}
+
+			shared[i] = common;
+			offsets[i] = builder.length();
+			builder.append(word, common, word.length());
+			previous = word;
+			i++;
+		}
+
+		offsets[i] = builder.length();
+		data = new char[builder.length()];
+		builder.getChars(0, builder.length(), data, 0);
+	}
+
+	/**
+	 * Returns the number of words in this dictionary.
+	 *
+	 * @return number of words
+	 */
+	public int size() {
+		return shared.length;
+	}
+
+	/**
+	 * Returns the word with the given id.
+	 *
+	 * @param id
+	 *            rank of the word in sorted order
+	 * @return the word
+	 */
+	public String get(int id) {
+		char[] buffer = new char[16];
+		int length = 0;
+
+		for (int i = id - id % BLOCK_SIZE; i <= id; i++) {
+			buffer = decode(i, buffer);
+			length = shared[i] + offsets[i + 1] - offsets[i];
+		}
+
+		return new String(buffer, 0, length);
+	}
+
+	/**
+	 * Finds the id of a word.
+	 *
+	 * @param word
+	 *            word to look for
+	 * @return id of the word, or (-(insertion point) - 1) if not found
+	 */
+	public int find(String word) {
+		int id = lowerBound(word);
+		if (id < size() && get(id).equals(word)) {
+			return id;
+		}
+		return -(id + 1);
+	}
+
+	/**
+	 * Returns the range of ids of all words starting with a prefix.
+	 *
+	 * @param prefix
+	 *            prefix to look for
+	 * @return two element array of the first id and one past the last id, which
+	 *         are equal if no word starts with the prefix
+	 */
+	public int[] prefixRange(String prefix) {
+		int low = lowerBound(prefix);
+
+		// the smallest string greater than every string starting with prefix
+		int end = prefix.length();
+		while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+			end--;
+		}
+
+		int high = size();
+		if (end > 0) {
+			char last = (char) (prefix.charAt(end - 1) + 1);
+			high = lowerBound(prefix.substring(0, end - 1) + last);
+		}
+
+		return new int[] { low, Math.max(low, high) };
+	}
+
+	/**
+	 * Returns the id of the first word that is not less than the given word.
+	 * Binary searches the first word of each block, then scans one block.
+	 *
+	 * @param word
+	 *            word to compare against
+	 * @return id of the first word greater than or equal to the word, or the
+	 *         size of this dictionary if there is none
+	 */
+	public int lowerBound(String word) {
+		int blocks = (size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		int low = 0;
+		int high = blocks - 1;
+
+		// find the last block whose first word is less than the word
+		int block = -1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int head = middle * BLOCK_SIZE;
+
+			if (compare(data, offsets[head], offsets[head + 1] - offsets[head], word) < 0) {
+				block = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+
+		if (block < 0) {
+			return 0;
+		}
+
+		int start = block * BLOCK_SIZE;
+		int end = Math.min(start + BLOCK_SIZE, size());
+		char[] buffer = new char[Math.max(16, word.length())];
+		int length = 0;
+
+		for (int i = start; i < end; i++) {
+			buffer = decode(i, buffer);
+			length = shared[i] + offsets[i + 1] - offsets[i];
+
+			if (compare(buffer, 0, length, word) >= 0) {
+				return i;
+			}
+		}
+
+		return end;
+	}
+
+	/**
+	 * Decodes a word into a buffer that holds the previous word.
+	 *
+	 * @param i
+	 *            id of the word to decode
+	 * @param buffer
+	 *            holds the previous word in the same block
+	 * @return buffer holding the decoded word, which may be a new array
+	 */
+	private char[] decode(int i, char[] buffer) {
+		int suffix = offsets[i + 1] - offsets[i];
+		int total = shared[i] + suffix;
+
+		if (total > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(total, buffer.length * 2));
+		}
+
+		System.arraycopy(data, offsets[i], buffer, shared[i], suffix);
+		return buffer;
+	}
+
+	/**
+	 * Compares characters to a string the same way as
+	 * {@link String#compareTo(String)}.
+	 *
+	 * @param chars
+	 *            array holding the characters
+	 * @param start
+	 *            where the characters start
+	 * @param length
+	 *            number of characters
+	 * @param other
+	 *            string to compare against
+	 * @return negative, zero, or positive if the characters are less than,
+	 *         equal to, or greater than the string
+	 */
+	private static int compare(char[] chars, int start, int length, String other) {
+		int max = Math.min(length, other.length());
+		for (int i = 0; i < max; i++) {
+			char a = chars[start + i];
+			char b = other.charAt(i);
+			if (a != b) {
+				return a - b;
+			}
+		}
+		return length - other.length();
+	}
+}
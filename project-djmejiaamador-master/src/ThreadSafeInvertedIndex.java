@@ -1,6 +1,12 @@
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -45,6 +51,56 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 		}
 	}
 
+	@Override
+	public int removeDocuments(Collection<String> paths) {
+		lock.lockReadWrite();
+		try {
+			return super.removeDocuments(paths);
+		} finally {
+			lock.unlockReadWrite();
+		}
+	}
+
+	@Override
+	public void replaceDocuments(Collection<String> paths, Collection<InvertedIndex> others) {
+		lock.lockReadWrite();
+		try {
+			super.replaceDocuments(paths, others);
+		} finally {
+			lock.unlockReadWrite();
+		}
+	}
+
+	@Override
+	public void freeze() {
+		lock.lockReadWrite();
+		try {
+			super.freeze();
+		} finally {
+			lock.unlockReadWrite();
+		}
+	}
+
+	@Override
+	public boolean isFrozen() {
+		lock.lockReadOnly();
+		try {
+			return super.isFrozen();
+		} finally {
+			lock.unlockReadOnly();
+		}
+	}
+
+	@Override
+	public long estimateMemory() {
+		lock.lockReadOnly();
+		try {
+			return super.estimateMemory();
+		} finally {
+			lock.unlockReadOnly();
+		}
+	}
+
 	@Override
 	public void outputFile(Path outputLocation) throws IOException {
 		log.debug("Writing to: " + outputLocation.toString());
@@ -56,6 +112,58 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 		}
 	}
 
+	/**
+	 * Returns a sorted copy of the words, taken under the read lock, since a
+	 * view of the live words could change while the caller iterates it.
+	 */
+	@Override
+	public Set<String> words() {
+		lock.lockReadOnly();
+		try {
+			return Collections.unmodifiableSet(new TreeSet<>(super.words()));
+		} finally {
+			lock.unlockReadOnly();
+		}
+	}
+
+	@Override
+	public List<String> paths() {
+		lock.lockReadOnly();
+		try {
+			return super.paths();
+		} finally {
+			lock.unlockReadOnly();
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the index, holding the read lock throughout so
+	 * that nothing is added or removed while it is written.
+	 *
+	 * @param path
+	 *            file to write to
+	 * @throws IOException
+	 * @see MappedInvertedIndex#write(InvertedIndexInterface, Path)
+	 */
+	public void write(Path path) throws IOException {
+		lock.lockReadOnly();
+		try {
+			MappedInvertedIndex.writeUnlocked(this, path);
+		} finally {
+			lock.unlockReadOnly();
+		}
+	}
+
+	@Override
+	public TreeMap<String, int[]> locations(String word) {
+		lock.lockReadOnly();
+		try {
+			return super.locations(word);
+		} finally {
+			lock.unlockReadOnly();
+		}
+	}
+
 	@Override
 	public String toString() {
 		lock.lockReadOnly();
@@ -119,4 +227,14 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 
 	}
 
+	@Override
+	public ArrayList<SearchResult> search(String[] words, boolean exact, int k) {
+		lock.lockReadOnly();
+		try {
+			return super.search(words, exact, k);
+		} finally {
+			lock.unlockReadOnly();
+		}
+	}
+
 }
@@ -12,16 +12,35 @@ import org.apache.logging.log4j.Logger;
 public class ThreadSafeQueryParser implements QueryParserInterface {
 
 	private final TreeMap<String, ArrayList<SearchResult>> resultMap;
-	private final ThreadSafeInvertedIndex index;
+	private final InvertedIndexInterface index;
 
 	private final WorkQueue queue;
 
+	/** Maximum number of results kept for each query. */
+	private final int limit;
+
 	private static final Logger log = LogManager.getLogger();
 
-	public ThreadSafeQueryParser(ThreadSafeInvertedIndex index, WorkQueue queue) {
+	public ThreadSafeQueryParser(InvertedIndexInterface index, WorkQueue queue) {
+		this(index, queue, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Initializes a query parser that only keeps the best results of each
+	 * query.
+	 *
+	 * @param index
+	 *            thread safe index to search
+	 * @param queue
+	 *            work queue to search on
+	 * @param limit
+	 *            maximum number of results to keep for each query
+	 */
+	public ThreadSafeQueryParser(InvertedIndexInterface index, WorkQueue queue, int limit) {
 		this.index = index;
 		resultMap = new TreeMap<>();
 		this.queue = queue;
+		this.limit = limit;
 	}
 
 	@Override
@@ -31,8 +50,10 @@ public class ThreadSafeQueryParser implements QueryParserInterface {
 			while ((line = reader.readLine()) != null) {
 				queue.execute(new ParserMinion(line, exact));
 			}
+		} finally {
+			// even if the queue turned a line away, the lines it took are searched
+			queue.finish();
 		}
-		queue.finish();
 	}
 
 	/**
@@ -52,7 +73,7 @@ public class ThreadSafeQueryParser implements QueryParserInterface {
 
 			Arrays.sort(words);
 			String key = String.join(" ", words);
-			ArrayList<SearchResult> list = (exact) ? index.exactSearch(words) : index.partialSearch(words);
+			ArrayList<SearchResult> list = index.search(words, exact, limit);
 			synchronized (resultMap) {
 				resultMap.put(key, list);
 			}
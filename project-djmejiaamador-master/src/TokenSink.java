@@ -0,0 +1,18 @@
+/**
+ * Receives words one at a time, along with the position each word was found
+ * at, as text is being parsed.
+ *
+ * @see HTMLTokenizer
+ */
+public interface TokenSink {
+
+	/**
+	 * Accepts the next word.
+	 *
+	 * @param word
+	 *            cleaned, lowercase word
+	 * @param position
+	 *            position of the word, starting at 1
+	 */
+	public void accept(String word, int position);
+}
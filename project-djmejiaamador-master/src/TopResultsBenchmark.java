@@ -0,0 +1,71 @@
+/**
+ * Compares the latency of a full search, which sorts every matching result,
+ * against a top-k search, which keeps only a bounded heap of the best k, on
+ * words that appear in nearly every document. Builds a synthetic index where
+ * "the" and "and" appear in every document and "th" prefixes many words.
+ *
+ * Usage: java TopResultsBenchmark [documents] [k]
+ */
+public class TopResultsBenchmark {
+
+	/** Number of times each search is repeated. */
+	private static final int REPEAT = 50;
+
+	/**
+	 * Times a search, repeated {@link #REPEAT} times.
+	 *
+	 * @param search
+	 *            search to run
+	 * @return average time per search in milliseconds
+	 */
+	private static double time(Runnable search) {
+		// warm up before measuring anything
+		for (int i = 0; i < REPEAT; i++) {
+			search.run();
+		}
+
+		long begin = System.nanoTime();
+		for (int i = 0; i < REPEAT; i++) {
+			search.run();
+		}
+		return (System.nanoTime() - begin) / 1e6 / REPEAT;
+	}
+
+	public static void main(String[] args) {
+		int documents = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int k = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		InvertedIndex index = new InvertedIndex();
+		String[] text = new String[8];
+		for (int d = 0; d < documents; d++) {
+			text[0] = "the";
+			text[1] = "and";
+			text[2] = "the";
+			text[3] = "th" + (d % 97);
+			text[4] = "word" + (d % 1000);
+			text[5] = "the";
+			text[6] = "and";
+			text[7] = "thing";
+			index.addAll(text, "doc" + d + ".html", 1 + d % 13);
+		}
+		index.freeze();
+
+		String[][] queries = { { "the" }, { "and", "the" }, { "th" } };
+		for (String[] query : queries) {
+			String name = String.join(" ", query);
+			boolean exact = !name.equals("th");
+
+			double full = time(() -> {
+				if (exact) {
+					index.exactSearch(query);
+				} else {
+					index.partialSearch(query);
+				}
+			});
+			double top = time(() -> index.search(query, exact, k));
+
+			System.out.printf("%-8s %-8s full sort: %8.3f ms, top %d: %8.3f ms%n", name,
+					exact ? "exact" : "partial", full, k, top);
+		}
+	}
+}
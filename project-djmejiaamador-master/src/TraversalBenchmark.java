@@ -0,0 +1,133 @@
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares walking a directory tree one directory at a time against walking
+ * it with fork/join tasks. Builds a synthetic tree in a temporary directory
+ * that is both deep and wide, where every directory holds a few HTML files and
+ * a few files that are skipped, and deletes it afterwards.
+ *
+ * Usage: java TraversalBenchmark [depth] [width] [threads]
+ */
+public class TraversalBenchmark {
+
+	/** Number of times each walk is repeated. */
+	private static final int REPEAT = 10;
+
+	/** Number of HTML files in every directory. */
+	private static final int FILES = 5;
+
+	/**
+	 * Creates a tree of directories.
+	 *
+	 * @param directory
+	 *            directory to fill
+	 * @param depth
+	 *            number of levels of subdirectories to create below it
+	 * @param width
+	 *            number of subdirectories in every directory
+	 * @return number of HTML files created
+	 * @throws IOException
+	 */
+	private static int create(Path directory, int depth, int width) throws IOException {
+		int count = 0;
+		for (int i = 0; i < FILES; i++) {
+			Files.createFile(directory.resolve("page" + i + (i % 2 == 0 ? ".html" : ".htm")));
+			Files.createFile(directory.resolve("notes" + i + ".txt"));
+			count++;
+		}
+
+		if (depth > 0) {
+			for (int i = 0; i < width; i++) {
+				Path subdirectory = Files.createDirectory(directory.resolve("dir" + i));
+				count += create(subdirectory, depth - 1, width);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Deletes a tree of directories.
+	 *
+	 * @param root
+	 *            directory to delete
+	 * @throws IOException
+	 */
+	private static void delete(Path root) throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+				Files.delete(directory);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Times walking the tree, repeated {@link #REPEAT} times after warming up.
+	 *
+	 * @param root
+	 *            directory to walk
+	 * @param threads
+	 *            number of threads, or 0 to walk one directory at a time
+	 * @return average time per walk in milliseconds
+	 * @throws IOException
+	 */
+	private static double time(Path root, int threads) throws IOException {
+		AtomicInteger found = new AtomicInteger();
+		for (int i = 0; i < 2 * REPEAT; i++) {
+			if (i == REPEAT) {
+				found.set(0);
+			}
+			if (threads == 0) {
+				HTMLTraverser.traverse(root, path -> found.incrementAndGet());
+			} else {
+				HTMLTraverser.traverse(root, path -> found.incrementAndGet(), threads);
+			}
+		}
+
+		long begin = System.nanoTime();
+		for (int i = 0; i < REPEAT; i++) {
+			if (threads == 0) {
+				HTMLTraverser.traverse(root, path -> found.incrementAndGet());
+			} else {
+				HTMLTraverser.traverse(root, path -> found.incrementAndGet(), threads);
+			}
+		}
+		double elapsed = (System.nanoTime() - begin) / 1e6 / REPEAT;
+
+		System.out.printf("%-12s %10.3f ms, %d files%n", threads == 0 ? "sequential" : threads + " threads",
+				elapsed, found.get() / (2 * REPEAT));
+		return elapsed;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		int width = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+		Path root = Files.createTempDirectory("traversal");
+		try {
+			int files = create(root, depth, width);
+			System.out.printf("depth %d, width %d, %d HTML files%n", depth, width, files);
+
+			time(root, 0);
+			for (int t = 1; t <= threads; t *= 2) {
+				time(root, t);
+			}
+		} finally {
+			delete(root);
+		}
+	}
+}
@@ -2,8 +2,13 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.UnknownHostException;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -11,22 +16,498 @@ public class WebCrawler {
 
 	private static final Logger log = LogManager.getLogger();
 	private final WorkQueue queue;
-	private final ThreadSafeInvertedIndex index;
-	private HashSet<URL> urls;
-	private int totalURLS;
+	private final InvertedIndexInterface index;
+	private final HTTPConnectionPool pool;
+	private final SeenURLSet urls;
+
+	/** Number of urls crawled or scheduled to be, seed included. */
+	private final AtomicInteger scheduled;
+	private volatile int totalURLS;
+
+	/** Fetches pages apart from parsing them, or null to do both at once. */
+	private final WorkQueue fetchers;
+
+	/** Pages fetched or parsed but not yet done with, when fetching apart. */
+	private int pending;
+
+	/** Hands out urls to workers host by host, or null to crawl in FIFO order. */
+	private final CrawlFrontier frontier;
+
+	/** Maps each url scheduled but not yet visited to its depth. */
+	private final ConcurrentHashMap<String, Integer> open;
+
+	/** Pages fetched before, to only fetch again if changed, or null. */
+	private PageStore store;
+
+	/** Most bytes of a page read before giving up on it. */
+	private long maxBody;
+
+	/** Where checkpoints are written, or null to not write any. */
+	private Path checkpoints;
+
+	/** Milliseconds between checkpoints. */
+	private long interval;
+
+	/** Guards the fields below, which let a checkpoint wait for pages to settle. */
+	private final Object gate;
+
+	/** Number of pages being added to the index or having their links scheduled. */
+	private int processing;
+
+	/** Set while a checkpoint is waiting or being written. */
+	private boolean paused;
 
-	public WebCrawler(WorkQueue queue, ThreadSafeInvertedIndex index) {
+	/** Set once the crawl is over, to stop writing checkpoints. */
+	private boolean stopped;
+
+	public WebCrawler(WorkQueue queue, InvertedIndexInterface index) {
+		this(queue, index, null);
+	}
+
+	public WebCrawler(WorkQueue queue, InvertedIndexInterface index, WorkQueue fetchers) {
+		this(queue, index, fetchers, new SeenURLSet());
+	}
+
+	/**
+	 * Initializes a crawler that fetches pages on one work queue and parses
+	 * them on another. Fetching mostly waits on the network, so the fetch
+	 * queue can have many more threads than there are processors to keep many
+	 * requests in flight, while parsing and indexing stay on a queue sized for
+	 * the processors.
+	 *
+	 * @param queue
+	 *            work queue to parse and index pages on
+	 * @param index
+	 *            index to add words to
+	 * @param fetchers
+	 *            work queue to fetch pages on, or null to fetch and parse
+	 *            each page in the same minion
+	 * @param urls
+	 *            remembers the urls seen so far
+	 */
+	public WebCrawler(WorkQueue queue, InvertedIndexInterface index, WorkQueue fetchers, SeenURLSet urls) {
+		this(queue, index, fetchers, urls, null);
+	}
+
+	/**
+	 * Initializes a crawler whose workers pull urls from a frontier, which
+	 * decides which url to visit next and keeps any one host from being
+	 * fetched from too often. There is one worker per thread of the fetch
+	 * queue if there is one, or of the work queue otherwise.
+	 *
+	 * @param queue
+	 *            work queue to parse and index pages on
+	 * @param index
+	 *            index to add words to
+	 * @param fetchers
+	 *            work queue to fetch pages on, or null to fetch and parse
+	 *            each page in the same minion
+	 * @param urls
+	 *            remembers the urls seen so far
+	 * @param frontier
+	 *            urls waiting to be visited, or null to visit urls in the
+	 *            order they are found
+	 */
+	public WebCrawler(WorkQueue queue, InvertedIndexInterface index, WorkQueue fetchers, SeenURLSet urls,
+			CrawlFrontier frontier) {
 		this.queue = queue;
 		this.index = index;
-		urls = new HashSet<URL>();
+		this.fetchers = fetchers;
+		this.frontier = frontier;
+		// one connection per fetching thread, so no minion waits on another
+		this.pool = new HTTPConnectionPool(fetchers == null ? queue.size() : fetchers.size(),
+				HTTPConnectionPool.DEFAULT_IDLE_TIMEOUT);
+		this.urls = urls;
+		scheduled = new AtomicInteger();
 		totalURLS = 0;
+		pending = 0;
+		open = new ConcurrentHashMap<>();
+		gate = new Object();
+		processing = 0;
+		paused = false;
+		stopped = false;
+		store = null;
+		maxBody = HTTPFetcher.DEFAULT_MAX_BODY;
+	}
+
+	/**
+	 * Sets the most bytes of a page read before giving up on it, so that one
+	 * huge page cannot hold up a fetching thread or fill up memory.
+	 *
+	 * @param maxBody
+	 *            most bytes of HTML to read per page
+	 */
+	public void setMaxBody(long maxBody) {
+		this.maxBody = maxBody;
+	}
+
+	/**
+	 * Keeps every page fetched in a store, and only fetches pages already in
+	 * it again if the server says they changed.
+	 *
+	 * @param store
+	 *            where to keep pages
+	 */
+	public void setStore(PageStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Rebuilds the index from every page in the store without touching the
+	 * network, indexing each page under the url it was fetched from.
+	 *
+	 * @throws IOException
+	 *             if the store cannot be listed
+	 */
+	public void reindex() throws IOException {
+		for (Path file : store.files()) {
+			submit(queue, new StoredPageMinion(file));
+		}
+		queue.finish();
+	}
+
+	/**
+	 * Fetches the HTML of a page, through the store if there is one.
+	 *
+	 * @param url
+	 *            page to fetch
+	 * @return the HTML, or null if not HTML
+	 * @throws IOException
+	 */
+	private CharSequence fetchHTML(URL url) throws IOException {
+		if (store != null) {
+			return HTTPFetcher.fetchHTML(url, pool, store, maxBody);
+		}
+		return HTTPFetcher.fetchHTML(url, pool, maxBody);
+	}
+
+	/**
+	 * Saves the state of the crawl every so often while crawling, and once
+	 * more when done, so that it can be resumed with
+	 * {@link #resume(CrawlCheckpoint, int)} if it stops part way.
+	 *
+	 * @param directory
+	 *            where to write checkpoints
+	 * @param interval
+	 *            milliseconds between checkpoints
+	 */
+	public void setCheckpoints(Path directory, long interval) {
+		this.checkpoints = directory;
+		this.interval = Math.max(1, interval);
 	}
 
 	public void crawl(URL seed, int limit) {
 		totalURLS += limit;
-		urls.add(seed);
-		queue.execute(new CrawlerMinion(seed));
-		queue.finish();
+		if (urls.add(seed)) {
+			scheduled.incrementAndGet();
+		}
+
+		LinkedHashMap<URL, Integer> start = new LinkedHashMap<>();
+		start.put(seed, 0);
+		start(start);
+	}
+
+	/**
+	 * Continues a crawl from a checkpoint. Adds the pages visited before the
+	 * checkpoint to the index, and visits the urls that were still waiting,
+	 * without fetching any page already in the index. The crawler should have
+	 * been given the seen urls of the same checkpoint.
+	 *
+	 * @param checkpoint
+	 *            checkpoint to continue from
+	 * @param limit
+	 *            most urls to crawl, counting those before the checkpoint
+	 * @throws IOException
+	 *             if the saved index cannot be read
+	 */
+	public void resume(CrawlCheckpoint checkpoint, int limit) throws IOException {
+		index.addAll(checkpoint.readIndex());
+		totalURLS += limit;
+		scheduled.addAndGet(checkpoint.getScheduled());
+
+		LinkedHashMap<URL, Integer> start = new LinkedHashMap<>();
+		for (Map.Entry<String, Integer> entry : checkpoint.getWaiting().entrySet()) {
+			try {
+				start.put(new URL(entry.getKey()), entry.getValue());
+			} catch (MalformedURLException e) {
+				log.debug("Bad URL in checkpoint: {}", entry.getKey());
+			}
+		}
+
+		log.debug("Resuming from {}", checkpoint);
+		start(start);
+	}
+
+	/**
+	 * Crawls from the given urls until nothing is left or the limit is
+	 * reached, writing checkpoints along the way if asked to.
+	 *
+	 * @param start
+	 *            maps each url to visit first to its depth
+	 */
+	private void start(Map<URL, Integer> start) {
+		Thread checkpointer = null;
+		if (checkpoints != null) {
+			checkpointer = new Thread(new CheckpointMinion());
+			checkpointer.setDaemon(true);
+			checkpointer.start();
+		}
+
+		if (frontier != null) {
+			for (Map.Entry<URL, Integer> entry : start.entrySet()) {
+				schedule(entry.getKey(), entry.getValue());
+			}
+			WorkQueue workers = fetchers == null ? queue : fetchers;
+			for (int i = 0; i < workers.size(); i++) {
+				submit(workers, new FrontierMinion());
+			}
+			// workers only stop once the frontier is empty and nothing is left
+			workers.finish();
+			queue.finish();
+		} else if (fetchers == null) {
+			for (Map.Entry<URL, Integer> entry : start.entrySet()) {
+				schedule(entry.getKey(), entry.getValue());
+			}
+			queue.finish();
+		} else {
+			for (Map.Entry<URL, Integer> entry : start.entrySet()) {
+				schedule(entry.getKey(), entry.getValue());
+			}
+			// either queue may add work to the other, so wait on both at once
+			synchronized (this) {
+				while (pending > 0) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			}
+		}
+
+		log.debug("Crawl finished, {}", pool);
+		if (store != null) {
+			log.debug("Page store {}", store);
+		}
+		pool.closeIdle();
+
+		if (checkpointer != null) {
+			synchronized (gate) {
+				stopped = true;
+				gate.notifyAll();
+			}
+
+			try {
+				checkpointer.join();
+				// a finished crawl resumes to nothing left to do
+				checkpoint();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (IOException e) {
+				log.warn("Unable to write checkpoint to {}", checkpoints);
+			}
+		}
+	}
+
+	/**
+	 * Waits for every page being processed to be done with, and saves the
+	 * index, the seen urls and the urls not yet visited while no page is. Pages
+	 * keep being fetched in the meantime.
+	 *
+	 * @return generation of the checkpoint written
+	 * @throws IOException
+	 *             if the checkpoint cannot be written
+	 * @throws InterruptedException
+	 *             if interrupted waiting for pages to be done with
+	 */
+	public long checkpoint() throws IOException, InterruptedException {
+		synchronized (gate) {
+			while (paused) {
+				gate.wait();
+			}
+
+			// pages wait from here on, so a steady stream of them cannot starve us
+			paused = true;
+			try {
+				while (processing > 0) {
+					gate.wait();
+				}
+			} catch (InterruptedException e) {
+				paused = false;
+				gate.notifyAll();
+				throw e;
+			}
+		}
+
+		try {
+			long generation = CrawlCheckpoint.write(checkpoints, index, urls, new LinkedHashMap<>(open),
+					scheduled.get());
+			log.debug("Wrote checkpoint {} with {} urls waiting", generation, open.size());
+			return generation;
+		} finally {
+			synchronized (gate) {
+				paused = false;
+				gate.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Adds a fetched page to the index, schedules its links and marks it as
+	 * visited, all without a checkpoint in between. A page that could not be
+	 * fetched is only marked as visited.
+	 *
+	 * @param url
+	 *            url of the page
+	 * @param html
+	 *            HTML of the page, or null if it could not be fetched
+	 * @param depth
+	 *            number of links between the seed and the page
+	 */
+	private void complete(URL url, CharSequence html, int depth) {
+		boolean interrupted = false;
+		synchronized (gate) {
+			while (paused) {
+				try {
+					gate.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			processing++;
+		}
+
+		try {
+			if (html != null) {
+				process(url, html, depth);
+			}
+			open.remove(url.toString());
+		} finally {
+			synchronized (gate) {
+				processing--;
+				if (processing == 0) {
+					gate.notifyAll();
+				}
+			}
+
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Hands a task to a queue, waiting for room if the queue is full whatever
+	 * it was set up to do, since a crawl counts on every task it hands out
+	 * being run.
+	 *
+	 * @param workers
+	 *            queue to run the task on
+	 * @param task
+	 *            task to run
+	 */
+	private static void submit(WorkQueue workers, Runnable task) {
+		workers.execute(task, WorkQueue.Rejection.BLOCK);
+	}
+
+	/**
+	 * Schedules a page to be fetched on the fetch queue.
+	 *
+	 * @param url
+	 *            page to fetch
+	 * @param depth
+	 *            number of links between the seed and the page
+	 */
+	private void fetch(URL url, int depth) {
+		synchronized (this) {
+			pending++;
+		}
+		submit(fetchers, new FetchMinion(url, depth));
+	}
+
+	/**
+	 * Marks a fetched page as done with, waking up {@link #crawl(URL, int)}
+	 * once nothing is left.
+	 */
+	private synchronized void done() {
+		pending--;
+		if (pending == 0) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Schedules a new link to be crawled, whichever way this crawler crawls.
+	 *
+	 * @param link
+	 *            url to crawl
+	 * @param depth
+	 *            number of links between the seed and the url
+	 */
+	private void schedule(URL link, int depth) {
+		open.put(link.toString(), depth);
+
+		if (frontier != null) {
+			frontier.add(link, depth);
+		} else if (fetchers != null) {
+			fetch(link, depth);
+		} else {
+			submit(queue, new CrawlerMinion(link, depth));
+		}
+	}
+
+	/**
+	 * Adds the words of a page to the index.
+	 *
+	 * @param location
+	 *            url of the page
+	 * @param html
+	 *            HTML of the page
+	 */
+	private void add(String location, CharSequence html) {
+		InvertedIndex local = new InvertedIndex();
+		HTMLTokenizer.tokenize(html, (word, position) -> local.add(word, location, position));
+		index.addAll(local);
+	}
+
+	/**
+	 * Adds the words of a page to the index, and schedules the links on it
+	 * that have not been seen yet, up to the limit.
+	 *
+	 * @param url
+	 *            url of the page
+	 * @param html
+	 *            HTML of the page
+	 * @param depth
+	 *            number of links between the seed and the page
+	 */
+	private void process(URL url, CharSequence html, int depth) {
+		log.debug(url.toString());
+		add(url.toString(), html);
+
+		ArrayList<URL> links = LinkParser.listLinks(url, html);
+		if (frontier != null && frontier.getPriority() == CrawlFrontier.Priority.INBOUND) {
+			// links to pages still waiting move them up
+			for (URL link : links) {
+				frontier.reference(link);
+			}
+		}
+
+		for (URL link : links) {
+			if (scheduled.get() >= totalURLS) {
+				break;
+			}
+
+			// only a link no other thread has claimed counts towards the limit
+			if (urls.add(link)) {
+				if (scheduled.incrementAndGet() > totalURLS) {
+					scheduled.decrementAndGet();
+					break;
+				}
+				schedule(link, depth + 1);
+			}
+		}
 	}
 
 	public String toStrong() {
@@ -36,39 +517,19 @@ public class WebCrawler {
 	private class CrawlerMinion implements Runnable {
 
 		private URL url;
+		private int depth;
 
-		CrawlerMinion(URL url) {
+		CrawlerMinion(URL url, int depth) {
 			this.url = url;
+			this.depth = depth;
 		}
 
 		@Override
 		public void run() {
+			CharSequence html = null;
 			try {
 
-				int counter = 1;
-				String html = HTTPFetcher.fetchHTML(url.toString());
-				if (html == null) {
-					return;
-				}
-				log.debug(url.toString());
-				String whole = HTMLCleaner.stripHTML(html);
-				String[] textArray = WordParser.parseWords(whole);
-				index.addAll(textArray, url.toString(), counter);
-
-				ArrayList<URL> links = LinkParser.listLinks(url, html);
-
-				synchronized (urls) {
-					for (URL link : links) {
-						if (urls.size() >= totalURLS) {
-							break;
-						}
-						if (!urls.contains(link)) {
-
-							urls.add(link);
-							queue.execute(new CrawlerMinion(link));
-						}
-					}
-				}
+				html = fetchHTML(url);
 				log.debug("reached crawler:");
 			} catch (UnknownHostException e) {
 				log.debug("Invalid host");
@@ -80,7 +541,180 @@ public class WebCrawler {
 				log.debug("something went wrong");
 			}
 
+			complete(url, html, depth);
+		}
+	}
+
+	/**
+	 * Minion class that only fetches a page, and hands it to the parsing queue.
+	 */
+	private class FetchMinion implements Runnable {
+
+		private URL url;
+		private int depth;
+
+		FetchMinion(URL url, int depth) {
+			this.url = url;
+			this.depth = depth;
+		}
+
+		@Override
+		public void run() {
+			CharSequence html = null;
+			try {
+				html = fetchHTML(url);
+			} catch (IOException e) {
+				log.debug("Unable to fetch {}", url);
+			} finally {
+				if (html == null) {
+					try {
+						complete(url, null, depth);
+					} finally {
+						done();
+					}
+				}
+			}
+
+			if (html != null) {
+				submit(queue, new ParseMinion(url, html, depth, null));
+			}
 		}
 	}
 
+	/**
+	 * Minion class that parses a fetched page, and hands its links to the
+	 * fetch queue or the frontier.
+	 */
+	private class ParseMinion implements Runnable {
+
+		private URL url;
+		private CharSequence html;
+		private int depth;
+		private CrawlFrontier.Entry entry;
+
+		ParseMinion(URL url, CharSequence html, int depth, CrawlFrontier.Entry entry) {
+			this.url = url;
+			this.html = html;
+			this.depth = depth;
+			this.entry = entry;
+		}
+
+		@Override
+		public void run() {
+			try {
+				complete(url, html, depth);
+			} finally {
+				if (entry == null) {
+					done();
+				} else {
+					frontier.done(entry);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Minion class that keeps taking the next url from the frontier and
+	 * fetching it until the frontier runs out. Parses each page itself, or
+	 * hands it to the parsing queue when fetching apart.
+	 */
+	private class FrontierMinion implements Runnable {
+
+		@Override
+		public void run() {
+			CrawlFrontier.Entry entry;
+			try {
+				while ((entry = frontier.take()) != null) {
+					URL url = entry.getURL();
+					CharSequence html = null;
+					try {
+						html = fetchHTML(url);
+					} catch (IOException e) {
+						log.debug("Unable to fetch {}", url);
+					} finally {
+						frontier.fetched(entry);
+						if (html == null) {
+							try {
+								complete(url, null, entry.getDepth());
+							} finally {
+								frontier.done(entry);
+							}
+						}
+					}
+
+					if (html == null) {
+						continue;
+					}
+
+					if (fetchers != null) {
+						submit(queue, new ParseMinion(url, html, entry.getDepth(), entry));
+					} else {
+						try {
+							complete(url, html, entry.getDepth());
+						} finally {
+							frontier.done(entry);
+						}
+					}
+				}
+			} catch (InterruptedException e) {
+				log.debug("Interrupted waiting on the frontier");
+			}
+		}
+	}
+
+	/**
+	 * Minion class that writes a checkpoint every so often until the crawl is
+	 * over.
+	 */
+	private class CheckpointMinion implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					synchronized (gate) {
+						long due = System.currentTimeMillis() + interval;
+						long now;
+						while (!stopped && (now = System.currentTimeMillis()) < due) {
+							gate.wait(due - now);
+						}
+
+						if (stopped) {
+							return;
+						}
+					}
+
+					try {
+						checkpoint();
+					} catch (IOException e) {
+						log.warn("Unable to write checkpoint to {}", checkpoints);
+					}
+				}
+			} catch (InterruptedException e) {
+				log.debug("Checkpoints interrupted");
+			}
+		}
+	}
+
+	/**
+	 * Minion class that adds a page from the store to the index.
+	 */
+	private class StoredPageMinion implements Runnable {
+
+		private Path file;
+
+		StoredPageMinion(Path file) {
+			this.file = file;
+		}
+
+		@Override
+		public void run() {
+			try {
+				PageStore.Page page = PageStore.read(file);
+				add(page.getURL(), page.getHTML());
+			} catch (IOException e) {
+				log.debug("Unable to read stored page {}", file);
+			}
+		}
+	}
 }
@@ -1,4 +1,7 @@
+import java.nio.CharBuffer;
 import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.TreeSet;
 import java.util.regex.Pattern;
@@ -61,9 +64,33 @@ public class WordParser {
 	 *
 	 * @see #split(String)
 	 * @see #clean(String)
+	 * @see #forEachWord(CharSequence, TokenSink)
 	 */
 	public static String[] parseWords(String text) {
-		return split(clean(text));
+		ArrayList<String> words = new ArrayList<>();
+		forEachWord(text, (word, position) -> words.add(word));
+		return words.toArray(new String[words.size()]);
+	}
+
+	/**
+	 * Cleans and splits text the same way as {@link #parseWords(String)}, but
+	 * hands each word to the sink as soon as it is found instead of building
+	 * copies of the text and an array of every word.
+	 *
+	 * @param text
+	 *            to clean and split
+	 * @param sink
+	 *            receives each word and its position, starting at 1
+	 * @return number of words found
+	 *
+	 * @see Splitter
+	 */
+	public static int forEachWord(CharSequence text, TokenSink sink) {
+		Splitter splitter = new Splitter(sink);
+		for (int i = 0; i < text.length(); i++) {
+			splitter.accept(text.charAt(i));
+		}
+		return splitter.finish();
 	}
 
 	/**
@@ -81,4 +108,215 @@ public class WordParser {
 		Collections.addAll(words, parseWords(text));
 		return words;
 	}
+
+	/**
+	 * Checks whether a code point is whitespace as matched by "\p{Space}" in
+	 * {@link #SPLIT_REGEX}.
+	 *
+	 * @param c
+	 *            code point to check
+	 * @return true if the code point has the White_Space property
+	 */
+	private static boolean isWhiteSpace(int c) {
+		int type = Character.getType(c);
+		return type == Character.SPACE_SEPARATOR || type == Character.LINE_SEPARATOR
+				|| type == Character.PARAGRAPH_SEPARATOR || (c >= 0x9 && c <= 0xD) || c == 0x85;
+	}
+
+	/**
+	 * Splits text fed to it one character at a time into words, the same way
+	 * as {@link #parseWords(String)}: normalizes to NFC, keeps runs of
+	 * alphabetic characters as words, and lowercases them. The same buffers
+	 * are reused for every word, so the only allocations are the words
+	 * themselves.
+	 *
+	 * Text is normalized in segments that each start at an ASCII character,
+	 * since nothing before an ASCII character can combine with anything after
+	 * it. ASCII characters that are not followed by anything else skip
+	 * normalization, so pure ASCII text is never normalized.
+	 */
+	public static class Splitter {
+
+		private final TokenSink sink;
+
+		/** Characters waiting to be normalized. */
+		private char[] segment;
+		private int segmentLength;
+
+		/** ASCII character that may start the next segment, or -1 if none. */
+		private int pending;
+
+		/**
+		 * Characters of the current word, starting at index 1. Index 0 always
+		 * holds a space, used when a word has to be lowercased in context.
+		 */
+		private char[] word;
+		private int wordLength;
+
+		/** Position of the next word. */
+		private int position;
+
+		/** Whether anything other than ASCII whitespace has been seen. */
+		private boolean started;
+
+		/** Whether the current word is the very first thing in the text. */
+		private boolean first;
+
+		/** Whether any character has been processed yet. */
+		private boolean empty;
+
+		/** Whether the current word contains a capital sigma. */
+		private boolean sigma;
+
+		/**
+		 * Whether the text starts with non-ASCII whitespace, in which case
+		 * splitting produces an empty first word if any other word follows.
+		 */
+		private boolean leadingEmpty;
+
+		/**
+		 * Initializes a splitter for one text.
+		 *
+		 * @param sink
+		 *            receives each word and its position, starting at 1
+		 */
+		public Splitter(TokenSink sink) {
+			this.sink = sink;
+			this.segment = new char[16];
+			this.segmentLength = 0;
+			this.pending = -1;
+			this.word = new char[32];
+			this.word[0] = ' ';
+			this.wordLength = 0;
+			this.position = 1;
+			this.started = false;
+			this.first = false;
+			this.empty = true;
+			this.sigma = false;
+			this.leadingEmpty = false;
+		}
+
+		/**
+		 * Accepts the next character of text.
+		 *
+		 * @param c
+		 *            character to accept
+		 */
+		public void accept(char c) {
+			if (c < 0x80) {
+				flush();
+				pending = c;
+				return;
+			}
+
+			if (segmentLength + 2 > segment.length) {
+				segment = Arrays.copyOf(segment, segment.length * 2);
+			}
+			if (pending >= 0) {
+				segment[segmentLength++] = (char) pending;
+				pending = -1;
+			}
+			segment[segmentLength++] = c;
+		}
+
+		/**
+		 * Ends the text, emitting the last word if any.
+		 *
+		 * @return number of words emitted
+		 */
+		public int finish() {
+			flush();
+			endWord();
+			return position - 1;
+		}
+
+		/**
+		 * Processes the pending ASCII character, or normalizes and processes
+		 * the current segment.
+		 */
+		private void flush() {
+			if (pending >= 0) {
+				process(pending);
+				pending = -1;
+			}
+
+			if (segmentLength == 0) {
+				return;
+			}
+
+			CharBuffer chars = CharBuffer.wrap(segment, 0, segmentLength);
+			String normalized = Normalizer.normalize(chars, Normalizer.Form.NFC);
+			for (int i = 0; i < normalized.length();) {
+				int c = normalized.codePointAt(i);
+				process(c);
+				i += Character.charCount(c);
+			}
+
+			segmentLength = 0;
+		}
+
+		/**
+		 * Adds a normalized code point to the current word, or ends the word.
+		 *
+		 * @param c
+		 *            code point to process
+		 */
+		private void process(int c) {
+			boolean alphabetic;
+			if (c < 0x80) {
+				alphabetic = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+			} else {
+				alphabetic = Character.isAlphabetic(c);
+			}
+
+			if (alphabetic) {
+				if (wordLength == 0) {
+					first = empty;
+				}
+				started = true;
+				empty = false;
+
+				if (wordLength + 3 > word.length) {
+					word = Arrays.copyOf(word, word.length * 2);
+				}
+				wordLength += Character.toChars(c, word, wordLength + 1);
+				sigma |= c == '\u03A3';
+				return;
+			}
+
+			empty = false;
+			endWord();
+			if (!started && c > ' ' && isWhiteSpace(c)) {
+				started = true;
+				leadingEmpty = true;
+			}
+		}
+
+		/**
+		 * Emits the current word, if any.
+		 */
+		private void endWord() {
+			if (wordLength == 0) {
+				return;
+			}
+
+			if (leadingEmpty) {
+				sink.accept("", position++);
+				leadingEmpty = false;
+			}
+
+			// a capital sigma may lowercase differently depending on whether
+			// anything comes before the word, so lowercase it in context
+			String lower;
+			if (first || !sigma) {
+				lower = new String(word, 1, wordLength).toLowerCase();
+			} else {
+				lower = new String(word, 0, wordLength + 1).toLowerCase().substring(1);
+			}
+
+			sink.accept(lower, position++);
+			wordLength = 0;
+			sigma = false;
+		}
+	}
 }
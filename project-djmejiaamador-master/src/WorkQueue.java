@@ -1,4 +1,5 @@
 import java.util.LinkedList;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -8,12 +9,37 @@ import org.apache.logging.log4j.Logger;
  * Brian Goetz. It is up to the user of this class to keep track of whether
  * there is any pending work remaining.
  *
+ * By default any amount of work may be waiting. A queue can instead be given
+ * a capacity, so that a producer much faster than the workers cannot fill the
+ * heap with waiting work, along with what to do with work added once it is
+ * full. The queue counts how often that happened.
+ *
+ * Every worker takes work from the one shared list, so with many short tasks
+ * the lock on it becomes the bottleneck; {@link WorkStealingQueue} runs the
+ * same kind of work on a deque per worker instead.
+ *
  * @see <a href=
  *      "http://www.ibm.com/developerworks/library/j-jtp0730/index.html">Java
  *      Theory and Practice: Thread Pools and Work Queues</a>
  */
 public class WorkQueue {
 	public static final Logger log = LogManager.getLogger();
+
+	/** What to do with work added while the queue is full. */
+	public static enum Rejection {
+		/**
+		 * Waits until there is room. The queue's own workers never wait, since
+		 * only they make room, and queue past the capacity instead.
+		 */
+		BLOCK,
+		/** Runs the work in the thread adding it. */
+		CALLER_RUNS,
+		/** Drops the work. */
+		DISCARD,
+		/** Drops the work and throws a {@link RejectedExecutionException}. */
+		ABORT
+	};
+
 	/**
 	 * Pool of worker threads that will wait in the background until work is
 	 * available.
@@ -32,6 +58,25 @@ public class WorkQueue {
 
 	private int pending;
 
+	/** Most work requests waiting before the queue counts as full. */
+	private final int capacity;
+
+	/** What to do with work added while full, unless told otherwise. */
+	private final Rejection rejection;
+
+	/** Most work requests ever waiting at once. */
+	private int peak;
+
+	/** Number of work requests dropped because the queue was full. */
+	private long rejected;
+
+	/** Number of work requests run by the thread adding them. */
+	private long callerRuns;
+
+	/** Number of threads waiting for room, and how long they waited in all. */
+	private int blocked;
+	private long blockedNanos;
+
 	/**
 	 * Starts a work queue with the default number of threads.
 	 *
@@ -48,10 +93,36 @@ public class WorkQueue {
 	 *            number of worker threads; should be greater than 1
 	 */
 	public WorkQueue(int threads) {
+		this(threads, Integer.MAX_VALUE, Rejection.BLOCK);
+	}
+
+	/**
+	 * Starts a work queue with the specified number of threads, and at most
+	 * the specified amount of work waiting for them.
+	 *
+	 * @param threads
+	 *            number of worker threads; should be greater than 1
+	 * @param capacity
+	 *            most work requests waiting before the queue is full
+	 * @param rejection
+	 *            what to do with work added while the queue is full
+	 */
+	public WorkQueue(int threads, int capacity, Rejection rejection) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive.");
+		}
+
 		this.queue = new LinkedList<>();
 		this.workers = new PoolWorker[threads];
 		this.pending = 0;
 		this.shutdown = false;
+		this.capacity = capacity;
+		this.rejection = rejection;
+		this.peak = 0;
+		this.rejected = 0;
+		this.callerRuns = 0;
+		this.blocked = 0;
+		this.blockedNanos = 0;
 
 		// start the threads so they are waiting in the background
 		for (int i = 0; i < threads; i++) {
@@ -61,19 +132,106 @@ public class WorkQueue {
 		log.debug("work queue started with:{}", workers.length);
 	}
 
+	/**
+	 * Sets up the capacity and rejection policy of a queue whose subclass
+	 * runs work on threads of its own, without starting any workers here.
+	 *
+	 * @param capacity
+	 *            most work requests waiting before the queue is full
+	 * @param rejection
+	 *            what to do with work added while the queue is full
+	 * @see WorkStealingQueue
+	 */
+	protected WorkQueue(int capacity, Rejection rejection) {
+		this(0, capacity, rejection);
+	}
+
 	/**
 	 * Adds a work request to the queue. A thread will process this request when
 	 * available.
 	 *
 	 * @param r
 	 *            work request (in the form of a {@link Runnable} object)
+	 * @return false if the queue was full and dropped the request
+	 * @throws RejectedExecutionException
+	 *             if the queue was full and is set to fail
+	 * @see #execute(Runnable, Rejection)
+	 */
+	public boolean execute(Runnable r) {
+		return execute(r, rejection);
+	}
+
+	/**
+	 * Adds a work request to the queue, handling it as told if the queue is
+	 * full instead of the way the queue was set up to. Lets a caller that
+	 * cannot lose work wait for room even when other work may be dropped.
+	 *
+	 * @param r
+	 *            work request (in the form of a {@link Runnable} object)
+	 * @param rejection
+	 *            what to do with the request if the queue is full
+	 * @return false if the queue was full and dropped the request
+	 * @throws RejectedExecutionException
+	 *             if the queue was full and told to fail
 	 */
-	public void execute(Runnable r) {
+	public boolean execute(Runnable r, Rejection rejection) {
 		synchronized (queue) {
-			pending++;
-			queue.addLast(r);
-			queue.notifyAll();
+			if (queue.size() >= capacity && rejection == Rejection.BLOCK && !isWorker()) {
+				long start = System.nanoTime();
+				blocked++;
+				try {
+					while (queue.size() >= capacity && !shutdown) {
+						queue.wait();
+					}
+				} catch (InterruptedException e) {
+					// gives up waiting, but keeps the work rather than lose it
+					Thread.currentThread().interrupt();
+				} finally {
+					blocked--;
+					blockedNanos += System.nanoTime() - start;
+				}
+			}
+
+			if (queue.size() < capacity || rejection == Rejection.BLOCK) {
+				pending++;
+				queue.addLast(r);
+				peak = Math.max(peak, queue.size());
+				queue.notifyAll();
+				return true;
+			}
+
+			if (rejection != Rejection.CALLER_RUNS) {
+				rejected++;
+				if (rejection == Rejection.ABORT) {
+					throw new RejectedExecutionException("Work queue is full with " + capacity + " requests.");
+				}
+				return false;
+			}
+			callerRuns++;
+		}
+
+		// run outside the lock, so the workers keep making room meanwhile
+		try {
+			r.run();
+		} catch (RuntimeException ex) {
+			log.debug(ex, ex);
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether the calling thread is one of this queue's workers.
+	 *
+	 * @return true if called from a worker
+	 */
+	private boolean isWorker() {
+		Thread current = Thread.currentThread();
+		for (PoolWorker worker : workers) {
+			if (worker == current) {
+				return true;
+			}
 		}
+		return false;
 	}
 
 	/**
@@ -127,6 +285,89 @@ public class WorkQueue {
 		return workers.length;
 	}
 
+	/**
+	 * Returns the most work requests that may wait before the queue is full.
+	 *
+	 * @return the capacity, or {@link Integer#MAX_VALUE} if unbounded
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns what is done with work added while the queue is full.
+	 *
+	 * @return the rejection policy
+	 */
+	public Rejection getRejection() {
+		return rejection;
+	}
+
+	/**
+	 * Returns the number of work requests waiting for a worker.
+	 *
+	 * @return current depth of the queue
+	 */
+	public int getQueued() {
+		synchronized (queue) {
+			return queue.size();
+		}
+	}
+
+	/**
+	 * Returns the most work requests that were ever waiting at once.
+	 *
+	 * @return deepest the queue has been
+	 */
+	public int getPeakQueued() {
+		synchronized (queue) {
+			return peak;
+		}
+	}
+
+	/**
+	 * Returns the number of work requests dropped or failed because the queue
+	 * was full.
+	 *
+	 * @return number of rejected requests
+	 */
+	public long getRejected() {
+		synchronized (queue) {
+			return rejected;
+		}
+	}
+
+	/**
+	 * Returns the number of work requests run by the thread adding them
+	 * because the queue was full.
+	 *
+	 * @return number of requests run by callers
+	 */
+	public long getCallerRuns() {
+		synchronized (queue) {
+			return callerRuns;
+		}
+	}
+
+	/**
+	 * Returns how long threads adding work have waited for room in all.
+	 *
+	 * @return milliseconds spent blocked
+	 */
+	public long getBlockedTime() {
+		synchronized (queue) {
+			return blockedNanos / 1000000;
+		}
+	}
+
+	@Override
+	public String toString() {
+		synchronized (queue) {
+			return String.format("%d threads, %d requests waiting (%d at most), %d rejected, %d run by callers, %d ms blocked",
+					workers.length, queue.size(), peak, rejected, callerRuns, blockedNanos / 1000000);
+		}
+	}
+
 	/**
 	 * Waits until work is available in the work queue. When work is found, will
 	 * remove the work from the queue and run it. If a shutdown is detected,
@@ -157,6 +398,11 @@ public class WorkQueue {
 						break;
 					} else {
 						r = queue.removeFirst();
+
+						// only producers waiting for room care that one was taken
+						if (blocked > 0) {
+							queue.notifyAll();
+						}
 					}
 				}
 
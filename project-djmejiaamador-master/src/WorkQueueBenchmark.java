@@ -0,0 +1,157 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * Compares how many short tasks per second the plain work queue and the
+ * work-stealing queue get through. Each run adds the given number of tasks,
+ * each of which does a little arithmetic, for 1 to 32 threads. The tasks are
+ * either all added by one outside thread, like one search per line of a
+ * query file, or added by the tasks themselves, like crawler minions adding
+ * the links they found.
+ *
+ * Usage: java WorkQueueBenchmark [tasks] [work per task]
+ */
+public class WorkQueueBenchmark {
+
+	/** Thread counts to benchmark. */
+	private static final int[] THREADS = { 1, 2, 4, 8, 16, 32 };
+
+	/** Number of tasks each nested task adds. */
+	private static final int FANOUT = 4;
+
+	/** Counts results that are never actually produced, so work is not skipped. */
+	private static final AtomicInteger unlikely = new AtomicInteger();
+
+	/**
+	 * Does a fixed amount of arithmetic.
+	 *
+	 * @param seed
+	 *            where to start
+	 * @param work
+	 *            number of rounds
+	 */
+	private static void work(int seed, int work) {
+		int x = seed;
+		for (int i = 0; i < work; i++) {
+			x ^= x << 13;
+			x ^= x >>> 17;
+			x ^= x << 5;
+		}
+		if (x == 42) {
+			unlikely.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Adds every task from the calling thread and waits for them.
+	 *
+	 * @param queue
+	 *            queue to run on
+	 * @param tasks
+	 *            number of tasks
+	 * @param work
+	 *            rounds of arithmetic per task
+	 * @return elapsed time in nanoseconds
+	 */
+	private static long flat(WorkQueue queue, int tasks, int work) {
+		long begin = System.nanoTime();
+		for (int i = 0; i < tasks; i++) {
+			final int seed = i + 1;
+			queue.execute(() -> work(seed, work));
+		}
+		queue.finish();
+		return System.nanoTime() - begin;
+	}
+
+	/**
+	 * Adds one task, which adds more from inside the queue until there are
+	 * as many as asked for, and waits for them.
+	 *
+	 * @param queue
+	 *            queue to run on
+	 * @param tasks
+	 *            number of tasks
+	 * @param work
+	 *            rounds of arithmetic per task
+	 * @return elapsed time in nanoseconds
+	 */
+	private static long nested(WorkQueue queue, int tasks, int work) {
+		AtomicInteger added = new AtomicInteger(1);
+		long begin = System.nanoTime();
+		queue.execute(new NestedTask(queue, added, tasks, work, 1));
+		queue.finish();
+		return System.nanoTime() - begin;
+	}
+
+	/**
+	 * A task that does its work and then adds up to {@link #FANOUT} more,
+	 * until the total is reached.
+	 */
+	private static class NestedTask implements Runnable {
+
+		private final WorkQueue queue;
+		private final AtomicInteger added;
+		private final int tasks;
+		private final int work;
+		private final int seed;
+
+		public NestedTask(WorkQueue queue, AtomicInteger added, int tasks, int work, int seed) {
+			this.queue = queue;
+			this.added = added;
+			this.tasks = tasks;
+			this.work = work;
+			this.seed = seed;
+		}
+
+		@Override
+		public void run() {
+			work(seed, work);
+			for (int i = 0; i < FANOUT; i++) {
+				int next = added.incrementAndGet();
+				if (next > tasks) {
+					return;
+				}
+				queue.execute(new NestedTask(queue, added, tasks, work, next));
+			}
+		}
+	}
+
+	/**
+	 * Benchmarks one kind of queue across all thread counts.
+	 *
+	 * @param name
+	 *            name to print
+	 * @param factory
+	 *            starts a queue with the given number of threads
+	 * @param tasks
+	 *            number of tasks per run
+	 * @param work
+	 *            rounds of arithmetic per task
+	 */
+	private static void benchmark(String name, IntFunction<WorkQueue> factory, int tasks, int work) {
+
+		// warm up before measuring anything
+		WorkQueue warm = factory.apply(4);
+		flat(warm, tasks, work);
+		nested(warm, tasks, work);
+		warm.shutdown();
+
+		for (int threads : THREADS) {
+			WorkQueue queue = factory.apply(threads);
+			long flat = flat(queue, tasks, work);
+			long nested = nested(queue, tasks, work);
+			queue.shutdown();
+
+			System.out.printf("%-18s %3d threads: flat %8.3f s, %,12.0f tasks/s; nested %8.3f s, %,12.0f tasks/s%n",
+					name, threads, flat / 1e9, tasks / (flat / 1e9), nested / 1e9, tasks / (nested / 1e9));
+		}
+	}
+
+	public static void main(String[] args) {
+		int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int work = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+		benchmark("WorkQueue", WorkQueue::new, tasks, work);
+		benchmark("WorkStealingQueue", WorkStealingQueue::new, tasks, work);
+	}
+}
@@ -0,0 +1,297 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A work queue that gives every worker a deque of its own instead of sharing
+ * one list under one lock. Work added by a worker, such as a crawler minion
+ * adding the links it found, goes on that worker's own deque, and a worker
+ * that runs out takes work from the others. Work added from any other thread
+ * goes to a shared entry queue the workers take from when idle. Only one idle
+ * worker is woken per request, instead of every thread waiting on the lock.
+ *
+ * Runs on a {@link ForkJoinPool} in FIFO mode, so work is still started
+ * roughly in the order it was added. Supports the same capacity and rejection
+ * policies as {@link WorkQueue}, counted the same way.
+ *
+ * @see WorkQueueBenchmark
+ */
+public class WorkStealingQueue extends WorkQueue {
+	private static final Logger log = LogManager.getLogger();
+
+	private final ForkJoinPool pool;
+
+	/** Number of work requests added but not started yet. */
+	private final AtomicInteger queued;
+
+	/** Number of work requests added but not finished yet. */
+	private final AtomicInteger pending;
+
+	/** Used to signal the queue should be shutdown. */
+	private volatile boolean shutdown;
+
+	/** Waited on by {@link #finish()} until nothing is pending. */
+	private final Object finished;
+
+	/** Waited on by producers until there is room. */
+	private final Object room;
+
+	/** Number of producers waiting for room. */
+	private final AtomicInteger blocked;
+
+	private final AtomicInteger peak;
+	private final AtomicLong rejected;
+	private final AtomicLong callerRuns;
+	private final AtomicLong blockedNanos;
+
+	/**
+	 * Starts a work-stealing queue with the default number of threads.
+	 */
+	public WorkStealingQueue() {
+		this(DEFAULT);
+	}
+
+	/**
+	 * Starts a work-stealing queue with the specified number of threads.
+	 *
+	 * @param threads
+	 *            number of worker threads
+	 */
+	public WorkStealingQueue(int threads) {
+		this(threads, Integer.MAX_VALUE, Rejection.BLOCK);
+	}
+
+	/**
+	 * Starts a work-stealing queue with the specified number of threads, and
+	 * at most the specified amount of work waiting for them.
+	 *
+	 * @param threads
+	 *            number of worker threads
+	 * @param capacity
+	 *            most work requests waiting before the queue is full
+	 * @param rejection
+	 *            what to do with work added while the queue is full
+	 */
+	public WorkStealingQueue(int threads, int capacity, Rejection rejection) {
+		super(capacity, rejection);
+		this.pool = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+		this.queued = new AtomicInteger();
+		this.pending = new AtomicInteger();
+		this.shutdown = false;
+		this.finished = new Object();
+		this.room = new Object();
+		this.blocked = new AtomicInteger();
+		this.peak = new AtomicInteger();
+		this.rejected = new AtomicLong();
+		this.callerRuns = new AtomicLong();
+		this.blockedNanos = new AtomicLong();
+		log.debug("work-stealing queue started with:{}", threads);
+	}
+
+	@Override
+	public boolean execute(Runnable r, Rejection rejection) {
+		if (shutdown) {
+			// like the plain queue, takes the work but never gets to it
+			return true;
+		}
+
+		if (queued.get() >= getCapacity()) {
+			if (rejection == Rejection.BLOCK) {
+				if (!isWorker()) {
+					waitForRoom();
+				}
+			} else if (rejection == Rejection.CALLER_RUNS) {
+				callerRuns.incrementAndGet();
+				try {
+					r.run();
+				} catch (RuntimeException ex) {
+					log.debug(ex, ex);
+				}
+				return true;
+			} else {
+				rejected.incrementAndGet();
+				if (rejection == Rejection.ABORT) {
+					throw new RejectedExecutionException("Work queue is full with " + getCapacity() + " requests.");
+				}
+				return false;
+			}
+		}
+
+		pending.incrementAndGet();
+		peak.accumulateAndGet(queued.incrementAndGet(), Math::max);
+
+		Task task = new Task(r);
+		if (isWorker()) {
+			// stays on this worker's deque unless another worker runs out
+			task.fork();
+		} else {
+			try {
+				pool.execute(task);
+			} catch (RejectedExecutionException e) {
+				// shut down since the check above, so dropped like it would have been
+				queued.decrementAndGet();
+				finished();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Counts a work request as finished, waking up {@link #finish()} if it
+	 * was the last one.
+	 */
+	private void finished() {
+		if (pending.decrementAndGet() == 0) {
+			synchronized (finished) {
+				finished.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Waits until fewer than the capacity of work requests are waiting, or
+	 * the queue is shut down.
+	 */
+	private void waitForRoom() {
+		long start = System.nanoTime();
+		blocked.incrementAndGet();
+		try {
+			synchronized (room) {
+				while (queued.get() >= getCapacity() && !shutdown) {
+					room.wait();
+				}
+			}
+		} catch (InterruptedException e) {
+			// gives up waiting, but keeps the work rather than lose it
+			Thread.currentThread().interrupt();
+		} finally {
+			blocked.decrementAndGet();
+			blockedNanos.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Checks whether the calling thread is one of this queue's workers.
+	 *
+	 * @return true if called from a worker
+	 */
+	private boolean isWorker() {
+		Thread current = Thread.currentThread();
+		return current instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) current).getPool() == pool;
+	}
+
+	@Override
+	public void finish() {
+		synchronized (finished) {
+			while (pending.get() > 0) {
+				try {
+					finished.wait();
+				} catch (InterruptedException e) {
+					log.debug("Interrupted waiting for work to finish");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Asks the queue to shutdown. Any unprocessed work will not be finished,
+	 * but work in progress will not be interrupted.
+	 */
+	@Override
+	public void shutdown() {
+		shutdown = true;
+		pool.shutdown();
+
+		synchronized (room) {
+			room.notifyAll();
+		}
+	}
+
+	@Override
+	public int size() {
+		return pool.getParallelism();
+	}
+
+	@Override
+	public int getQueued() {
+		return queued.get();
+	}
+
+	@Override
+	public int getPeakQueued() {
+		return peak.get();
+	}
+
+	@Override
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	@Override
+	public long getCallerRuns() {
+		return callerRuns.get();
+	}
+
+	@Override
+	public long getBlockedTime() {
+		return blockedNanos.get() / 1000000;
+	}
+
+	/**
+	 * Returns how many times a worker took work from another's deque.
+	 *
+	 * @return number of steals, an estimate while work is running
+	 */
+	public long getSteals() {
+		return pool.getStealCount();
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%d threads, %d requests waiting (%d at most), %d rejected, %d run by callers, %d ms blocked, %d stolen",
+				size(), getQueued(), getPeakQueued(), getRejected(), getCallerRuns(), getBlockedTime(), getSteals());
+	}
+
+	/**
+	 * Runs one work request, and keeps count of what is left.
+	 */
+	@SuppressWarnings("serial")
+	private class Task extends RecursiveAction {
+
+		private final Runnable r;
+
+		public Task(Runnable r) {
+			this.r = r;
+		}
+
+		@Override
+		protected void compute() {
+			queued.decrementAndGet();
+
+			// only producers waiting for room care that one was taken
+			if (blocked.get() > 0) {
+				synchronized (room) {
+					room.notifyAll();
+				}
+			}
+
+			try {
+				if (!shutdown) {
+					r.run();
+				}
+			} catch (RuntimeException ex) {
+				// catch runtime exceptions to avoid leaking threads
+				log.debug(ex, ex);
+			} finally {
+				finished();
+			}
+		}
+	}
+}